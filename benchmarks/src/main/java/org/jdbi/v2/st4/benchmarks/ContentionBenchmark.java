@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4.benchmarks;
+
+import org.jdbi.v2.st4.ST4StatementLocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skife.jdbi.v2.StatementContext;
+import org.skife.jdbi.v2.tweak.StatementLocator;
+import org.stringtemplate.v4.STGroupFile;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One shared locator hammered by 1 to 64 threads, doubling each step, to show contention in the shared caches: a per
+ * type locator, a locator over an immutable snapshot of a group, and a locator over a plain ST group, where lookups
+ * go through ST's synchronized maps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentionBenchmark {
+
+    @Param({"perType", "snapshot", "group"})
+    public String locatorType;
+
+    private StatementLocator locator;
+    private StatementContext ctx;
+
+    @Setup
+    public void setUp() {
+        final URL url = PerTypeBenchmark.Dao.class.getResource("PerTypeBenchmark.Dao.sql.stg");
+        switch (locatorType) {
+            case "perType":
+                locator = ST4StatementLocator.perType(ST4StatementLocator.UseSTGroupCache.YES, LocateBenchmark.GROUP);
+                break;
+            case "snapshot":
+                locator = ST4StatementLocator.snapshotOf(new STGroupFile(url, "UTF-8", '<', '>'));
+                break;
+            default:
+                locator = new ST4StatementLocator(new STGroupFile(url, "UTF-8", '<', '>'));
+        }
+        ctx = Contexts.context(Contexts.attributes(10), PerTypeBenchmark.Dao.class);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String threads1() throws Exception {
+        return locator.locate("findById", ctx);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public String threads2() throws Exception {
+        return locator.locate("findById", ctx);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String threads4() throws Exception {
+        return locator.locate("findById", ctx);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String threads8() throws Exception {
+        return locator.locate("findById", ctx);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public String threads16() throws Exception {
+        return locator.locate("findById", ctx);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public String threads32() throws Exception {
+        return locator.locate("findById", ctx);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public String threads64() throws Exception {
+        return locator.locate("findById", ctx);
+    }
+}
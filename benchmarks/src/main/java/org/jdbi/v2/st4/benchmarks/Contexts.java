@@ -0,0 +1,70 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4.benchmarks;
+
+import org.skife.jdbi.v2.StatementContext;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Statement contexts for the benchmarks, which only answer what the locator asks for.
+ */
+final class Contexts {
+
+    private Contexts() {
+    }
+
+    static StatementContext context(final Map<String, Object> attributes, final Class<?> sqlObjectType) {
+        return (StatementContext) Proxy.newProxyInstance(
+            StatementContext.class.getClassLoader(),
+            new Class<?>[]{StatementContext.class},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getAttributes":
+                        return attributes;
+                    case "getAttribute":
+                        return attributes.get((String) args[0]);
+                    case "getSqlObjectType":
+                        return sqlObjectType;
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        return null;
+                }
+            });
+    }
+
+    /**
+     * The attributes the templates read, plus enough unrelated ones to make {@code count} in total.
+     */
+    static Map<String, Object> attributes(final int count) {
+        final Map<String, Object> attributes = new HashMap<>();
+        if (count > 0) {
+            attributes.put("table", "something");
+            attributes.put("columns", Arrays.asList("id", "name", "created_at"));
+            attributes.put("where", Arrays.asList("name = :name", "created_at > :since"));
+            attributes.put("joins", Arrays.asList("other", "more"));
+            attributes.put("limit", 10);
+        }
+        for (int i = attributes.size(); i < count; i++) {
+            attributes.put("unrelated" + i, "value" + i);
+        }
+        return attributes;
+    }
+}
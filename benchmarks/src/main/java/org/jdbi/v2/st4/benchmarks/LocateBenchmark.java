@@ -0,0 +1,76 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4.benchmarks;
+
+import org.jdbi.v2.st4.ST4StatementLocator;
+import org.jdbi.v2.st4.STGroupCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skife.jdbi.v2.StatementContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Locating named templates of different sizes, imported templates and sql literals, with contexts holding different
+ * numbers of attributes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocateBenchmark {
+
+    static final String GROUP = "/org/jdbi/v2/st4/benchmarks/Statements.sql.stg";
+
+    @Param({"small", "medium", "large", "imported"})
+    public String template;
+
+    @Param({"0", "10", "100"})
+    public int attributes;
+
+    private ST4StatementLocator locator;
+    private StatementContext ctx;
+
+    @Setup
+    public void setUp() {
+        locator = ST4StatementLocator.fromClasspath(STGroupCache.shared(), GROUP);
+        ctx = Contexts.context(Contexts.attributes(attributes), null);
+    }
+
+    @Benchmark
+    public String named() throws Exception {
+        return locator.locate(template, ctx);
+    }
+
+    @Benchmark
+    public String verbatimLiteral() throws Exception {
+        return locator.locate("select id, name from something where id = :id", ctx);
+    }
+
+    @Benchmark
+    public String templateLiteral() throws Exception {
+        return locator.locate("select id, name from <table> where id = :id", ctx);
+    }
+}
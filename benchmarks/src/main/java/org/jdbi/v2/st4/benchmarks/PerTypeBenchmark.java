@@ -0,0 +1,71 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4.benchmarks;
+
+import org.jdbi.v2.st4.ST4StatementLocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skife.jdbi.v2.StatementContext;
+import org.skife.jdbi.v2.tweak.StatementLocator;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatch through {@link ST4StatementLocator#perType}, for sql object statements and for statements which fall back
+ * to the base group.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PerTypeBenchmark {
+
+    @Param({"YES", "NO", "RELOAD_ON_CHANGE"})
+    public ST4StatementLocator.UseSTGroupCache cache;
+
+    private StatementLocator locator;
+    private StatementContext sqlObject;
+    private StatementContext fallback;
+
+    @Setup
+    public void setUp() {
+        locator = ST4StatementLocator.perType(cache, LocateBenchmark.GROUP);
+        sqlObject = Contexts.context(Contexts.attributes(10), Dao.class);
+        fallback = Contexts.context(Contexts.attributes(10), null);
+    }
+
+    @Benchmark
+    public String sqlObject() throws Exception {
+        return locator.locate("findById", sqlObject);
+    }
+
+    @Benchmark
+    public String fallback() throws Exception {
+        return locator.locate("medium", fallback);
+    }
+
+    public interface Dao {
+    }
+}
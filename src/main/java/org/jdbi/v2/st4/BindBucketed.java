@@ -0,0 +1,82 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.skife.jdbi.v2.sqlobject.SqlStatementCustomizer;
+import org.skife.jdbi.v2.sqlobject.SqlStatementCustomizerFactory;
+import org.skife.jdbi.v2.sqlobject.SqlStatementCustomizingAnnotation;
+
+import java.lang.annotation.Annotation;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Binds a collection or array parameter of a sql object method as an IN list whose length is rounded up to one of a
+ * few sizes, see {@link InLists}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+@SqlStatementCustomizingAnnotation(BindBucketed.CustomizerFactory.class)
+public @interface BindBucketed {
+
+    /**
+     * Name of the attribute the template writes the list with.
+     */
+    String value();
+
+    /**
+     * What the parameters beyond the values are bound to.
+     */
+    InLists.Padding padding() default InLists.Padding.LAST;
+
+    /**
+     * Ascending list lengths to round up to, or none for powers of two.
+     */
+    int[] sizes() default {};
+
+    class CustomizerFactory implements SqlStatementCustomizerFactory {
+
+        /**
+         * The checked sizes of each annotation, so they are checked once rather than on every call.
+         */
+        private static final ConcurrentMap<BindBucketed, int[]> SIZES = new ConcurrentHashMap<>();
+
+        @Override
+        public SqlStatementCustomizer createForMethod(final Annotation annotation,
+                                                      final Class sqlObjectType,
+                                                      final Method method) {
+            throw new UnsupportedOperationException("Annotation can only be applied to parameters");
+        }
+
+        @Override
+        public SqlStatementCustomizer createForType(final Annotation annotation, final Class sqlObjectType) {
+            throw new UnsupportedOperationException("Annotation can only be applied to parameters");
+        }
+
+        @Override
+        public SqlStatementCustomizer createForParameter(final Annotation annotation,
+                                                         final Class sqlObjectType,
+                                                         final Method method,
+                                                         final Object arg) {
+            final BindBucketed an = (BindBucketed) annotation;
+            final int[] sizes = SIZES.computeIfAbsent(an, (a) -> InLists.checkSizes(a.sizes()));
+            return q -> InLists.bindChecked(q, an.value(), InLists.values(arg), an.padding(), sizes);
+        }
+    }
+}
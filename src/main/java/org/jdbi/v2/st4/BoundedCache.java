@@ -0,0 +1,280 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * A concurrent cache bounded by total weight. Reads are a single {@link ConcurrentHashMap} lookup and never lock;
+ * eviction uses the CLOCK (second chance) approximation of LRU and only runs on writes.
+ * <p>
+ * Entries which are replaced or invalidated stay in the clock queue as tombstones, which eviction skips, rather than
+ * being searched for. Once there are more tombstones than entries, they are swept out, so the queue holds at most
+ * about twice as many nodes as the cache holds entries, and invalidating an entry takes constant time.
+ * <p>
+ * Values are computed outside of any lock, so two threads missing on the same key at the same time may both compute
+ * it. The first one stored wins.
+ */
+final class BoundedCache<K, V> {
+
+    private final ConcurrentMap<K, Node<K, V>> map = new ConcurrentHashMap<>();
+    private final Queue<Node<K, V>> clock = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final AtomicLong weight = new AtomicLong();
+    private final AtomicLong tombstones = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private final long maximumWeight;
+    private final ToLongBiFunction<? super K, ? super V> weigher;
+
+    BoundedCache(final long maximumWeight, final ToLongBiFunction<? super K, ? super V> weigher) {
+        if (maximumWeight < 0) {
+            throw new IllegalArgumentException("maximum weight must not be negative: " + maximumWeight);
+        }
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+    }
+
+    /**
+     * A cache holding at most {@code maximumSize} entries.
+     */
+    static <K, V> BoundedCache<K, V> ofSize(final long maximumSize) {
+        return new BoundedCache<>(maximumSize, (k, v) -> 1);
+    }
+
+    V get(final K key) {
+        final Node<K, V> node = map.get(key);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        node.referenced = true;
+        hits.increment();
+        return node.value;
+    }
+
+    V computeIfAbsent(final K key, final Function<? super K, ? extends V> loader) {
+        final V cached = get(key);
+        if (cached != null) {
+            return cached;
+        }
+        final V value = loader.apply(key);
+        if (value == null) {
+            return null;
+        }
+        return putIfAbsent(key, value);
+    }
+
+    /**
+     * Stores a value unless one is already present, and returns whichever value is now cached.
+     */
+    V putIfAbsent(final K key, final V value) {
+        final Node<K, V> node = new Node<>(key, value, weigher.applyAsLong(key, value));
+        final Node<K, V> existing = map.putIfAbsent(key, node);
+        if (existing != null) {
+            return existing.value;
+        }
+        admit(node);
+        return value;
+    }
+
+    void put(final K key, final V value) {
+        final Node<K, V> node = new Node<>(key, value, weigher.applyAsLong(key, value));
+        final Node<K, V> previous = map.put(key, node);
+        if (previous != null) {
+            retire(previous);
+        }
+        admit(node);
+    }
+
+    /**
+     * Replaces the value for the key with a new one, if it is still the given one, and returns whether it was.
+     */
+    boolean replace(final K key, final V expected, final V value) {
+        final Node<K, V> node = map.get(key);
+        if (node == null || node.value != expected) {
+            return false;
+        }
+        final Node<K, V> replacement = new Node<>(key, value, weigher.applyAsLong(key, value));
+        if (!map.replace(key, node, replacement)) {
+            return false;
+        }
+        retire(node);
+        admit(replacement);
+        return true;
+    }
+
+    void invalidate(final K key) {
+        final Node<K, V> node = map.remove(key);
+        if (node != null) {
+            retire(node);
+            if (tombstones.get() > map.size()) {
+                sweep();
+            }
+        }
+    }
+
+    void invalidateAll() {
+        for (final K key : map.keySet()) {
+            final Node<K, V> node = map.remove(key);
+            if (node != null) {
+                retire(node);
+            }
+        }
+        sweep();
+    }
+
+    /**
+     * A live view of the keys currently cached.
+     */
+    Set<K> keys() {
+        return Collections.unmodifiableSet(map.keySet());
+    }
+
+    /**
+     * A snapshot of the values currently cached.
+     */
+    List<V> values() {
+        final List<V> values = new ArrayList<>(map.size());
+        for (final Node<K, V> node : map.values()) {
+            values.add(node.value);
+        }
+        return values;
+    }
+
+    long size() {
+        return map.size();
+    }
+
+    long weight() {
+        return weight.get();
+    }
+
+    long maximumWeight() {
+        return maximumWeight;
+    }
+
+    long hitCount() {
+        return hits.sum();
+    }
+
+    long missCount() {
+        return misses.sum();
+    }
+
+    long evictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Accounts for a node which was taken out of the map, and is left in the clock queue as a tombstone.
+     */
+    private void retire(final Node<K, V> node) {
+        weight.addAndGet(-node.weight);
+        tombstones.incrementAndGet();
+    }
+
+    private void admit(final Node<K, V> node) {
+        clock.offer(node);
+        if (weight.addAndGet(node.weight) > maximumWeight) {
+            evict();
+        }
+        else if (tombstones.get() > map.size()) {
+            sweep();
+        }
+    }
+
+    /**
+     * Takes the tombstones out of the clock queue.
+     */
+    private void sweep() {
+        // one sweeping thread is enough, the others may briefly leave more tombstones
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            for (final Iterator<Node<K, V>> it = clock.iterator(); it.hasNext(); ) {
+                final Node<K, V> node = it.next();
+                if (map.get(node.key) != node) {
+                    it.remove();
+                    tombstones.decrementAndGet();
+                }
+            }
+        }
+        finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void evict() {
+        // one evicting thread is enough, the others may briefly overshoot the bound
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            while (weight.get() > maximumWeight) {
+                final Node<K, V> node = clock.poll();
+                if (node == null) {
+                    return;
+                }
+                if (map.get(node.key) != node) {
+                    // replaced or invalidated since it was queued
+                    tombstones.decrementAndGet();
+                    continue;
+                }
+                if (node.referenced) {
+                    node.referenced = false;
+                    clock.offer(node);
+                    continue;
+                }
+                if (map.remove(node.key, node)) {
+                    weight.addAndGet(-node.weight);
+                    evictions.increment();
+                }
+            }
+        }
+        finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static final class Node<K, V> {
+        private final K key;
+        private final V value;
+        private final long weight;
+        private volatile boolean referenced;
+
+        private Node(final K key, final V value, final long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.stringtemplate.v4.STErrorListener;
+import org.stringtemplate.v4.misc.ErrorManager;
+import org.stringtemplate.v4.misc.ErrorType;
+import org.stringtemplate.v4.misc.STMessage;
+
+import java.io.Writer;
+
+/**
+ * A writer with a length limit, which throws {@link StatementTooLongException.Abort} on every write once the
+ * statement went past it. As the error listener of a render, it drops the errors ST reports for those throws.
+ */
+abstract class BoundedWriter extends Writer implements STErrorListener {
+
+    private int maxLength = Integer.MAX_VALUE;
+    private boolean overflowed;
+    private STErrorListener listener = ErrorManager.DEFAULT_ERROR_LISTENER;
+
+    /**
+     * Starts a statement which may be no longer than {@code maxLength}.
+     */
+    final void limit(final int maxLength) {
+        this.maxLength = maxLength;
+        this.overflowed = false;
+    }
+
+    /**
+     * Passes what ST reports while rendering into this writer on to the listener.
+     */
+    final void listener(final STErrorListener listener) {
+        this.listener = listener;
+    }
+
+    final int maxLength() {
+        return maxLength;
+    }
+
+    /**
+     * True if a write went past the limit.
+     */
+    final boolean overflowed() {
+        return overflowed;
+    }
+
+    /**
+     * Throws {@link StatementTooLongException.Abort} if a write went past the limit before.
+     */
+    final void checkOverflow() {
+        if (overflowed) {
+            throw new StatementTooLongException.Abort(maxLength);
+        }
+    }
+
+    /**
+     * Marks the writer as past the limit, and throws {@link StatementTooLongException.Abort}.
+     */
+    final void overflow() {
+        overflowed = true;
+        throw new StatementTooLongException.Abort(maxLength);
+    }
+
+    @Override
+    public void compileTimeError(final STMessage msg) {
+        listener.compileTimeError(msg);
+    }
+
+    @Override
+    public void runTimeError(final STMessage msg) {
+        // ST reports the aborted writes as internal errors, and carries on with the template which called it
+        if (!overflowed || msg.error != ErrorType.INTERNAL_ERROR) {
+            listener.runTimeError(msg);
+        }
+    }
+
+    @Override
+    public void IOError(final STMessage msg) {
+        listener.IOError(msg);
+    }
+
+    @Override
+    public void internalError(final STMessage msg) {
+        listener.internalError(msg);
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import java.net.URL;
+
+/**
+ * Group files on the classpath of a class loader.
+ */
+final class ClasspathTemplateSource implements TemplateSource {
+
+    private final ClassLoader classLoader;
+
+    ClasspathTemplateSource(final ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    @Override
+    public URL find(final String path) {
+        return classLoader.getResource(path.startsWith("/") ? path.substring(1) : path);
+    }
+
+    @Override
+    public String toString() {
+        return "ClasspathTemplateSource{" + classLoader + '}';
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.stringtemplate.v4.STErrorListener;
+import org.stringtemplate.v4.misc.ErrorManager;
+import org.stringtemplate.v4.misc.STMessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records the messages ST reports while it is recording, and passes all of them on to ST's default listener.
+ */
+final class CollectingErrorListener implements STErrorListener {
+
+    private final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+    private volatile boolean recording = true;
+
+    @Override
+    public void compileTimeError(final STMessage msg) {
+        record(msg);
+        ErrorManager.DEFAULT_ERROR_LISTENER.compileTimeError(msg);
+    }
+
+    @Override
+    public void runTimeError(final STMessage msg) {
+        record(msg);
+        ErrorManager.DEFAULT_ERROR_LISTENER.runTimeError(msg);
+    }
+
+    @Override
+    public void IOError(final STMessage msg) {
+        record(msg);
+        ErrorManager.DEFAULT_ERROR_LISTENER.IOError(msg);
+    }
+
+    @Override
+    public void internalError(final STMessage msg) {
+        record(msg);
+        ErrorManager.DEFAULT_ERROR_LISTENER.internalError(msg);
+    }
+
+    /**
+     * Stops recording, and returns what was recorded so far.
+     */
+    List<String> stop() {
+        recording = false;
+        synchronized (messages) {
+            return new ArrayList<>(messages);
+        }
+    }
+
+    /**
+     * Records a problem which ST did not report itself, such as an exception.
+     */
+    void error(final String message) {
+        if (recording) {
+            messages.add(message);
+        }
+    }
+
+    private void record(final STMessage msg) {
+        error(msg.toString());
+    }
+}
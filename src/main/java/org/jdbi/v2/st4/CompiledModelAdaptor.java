@@ -0,0 +1,172 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.stringtemplate.v4.Interpreter;
+import org.stringtemplate.v4.ModelAdaptor;
+import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.misc.ObjectModelAdaptor;
+import org.stringtemplate.v4.misc.STNoSuchPropertyException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reads properties of objects like ST's {@code ObjectModelAdaptor}, through a method handle looked up once per class
+ * and property. Properties it finds no accessor for are left to ST's adaptor.
+ */
+final class CompiledModelAdaptor implements ModelAdaptor<Object> {
+
+    /**
+     * Holds no state of its own, so one is shared by all groups.
+     */
+    static final CompiledModelAdaptor INSTANCE = new CompiledModelAdaptor();
+
+    private static final MethodType ACCESSOR_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    /**
+     * Stands for a property without an accessor of ours, as the cache holds no nulls.
+     */
+    private static final MethodHandle NONE = MethodHandles.constant(Object.class, null);
+
+    /**
+     * Accessors per class and property name, held by the class itself, so they go away with its class loader.
+     */
+    private static final ClassValue<ConcurrentMap<String, MethodHandle>> ACCESSORS =
+        new ClassValue<ConcurrentMap<String, MethodHandle>>() {
+            @Override
+            protected ConcurrentMap<String, MethodHandle> computeValue(final Class<?> type) {
+                return new ConcurrentHashMap<>();
+            }
+        };
+
+    private final ModelAdaptor<Object> fallback = new ObjectModelAdaptor<>();
+
+    private CompiledModelAdaptor() {
+    }
+
+    @Override
+    public Object getProperty(final Interpreter interp,
+                              final ST self,
+                              final Object o,
+                              final Object property,
+                              final String propertyName) throws STNoSuchPropertyException {
+        if (property == null || propertyName == null) {
+            return fallback.getProperty(interp, self, o, property, propertyName);
+        }
+        final MethodHandle accessor = accessor(o.getClass(), propertyName);
+        if (accessor == NONE) {
+            return fallback.getProperty(interp, self, o, property, propertyName);
+        }
+        try {
+            return (Object) accessor.invokeExact(o);
+        }
+        catch (final Error e) {
+            throw e;
+        }
+        catch (final Exception e) {
+            // as ST's adaptor reports it
+            throw new STNoSuchPropertyException(e, null, o.getClass().getName() + "." + propertyName);
+        }
+        catch (final Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static MethodHandle accessor(final Class<?> type, final String propertyName) {
+        final ConcurrentMap<String, MethodHandle> accessors = ACCESSORS.get(type);
+        MethodHandle accessor = accessors.get(propertyName);
+        if (accessor == null) {
+            final MethodHandle found = find(type, propertyName);
+            // another thread may have found it first, every caller uses the same handle
+            accessor = accessors.putIfAbsent(propertyName, found);
+            if (accessor == null) {
+                accessor = found;
+            }
+        }
+        return accessor;
+    }
+
+    private static MethodHandle find(final Class<?> type, final String propertyName) {
+        if (propertyName.isEmpty()) {
+            return NONE;
+        }
+        final String suffix = Character.toUpperCase(propertyName.charAt(0)) + propertyName.substring(1);
+        Method method = method(type, "get" + suffix);
+        if (method == null) {
+            method = method(type, "is" + suffix);
+        }
+        if (method == null) {
+            method = method(type, "has" + suffix);
+        }
+        if (method == null && isRecord(type)) {
+            method = method(type, propertyName);
+        }
+        try {
+            if (method != null) {
+                // like ST, which calls public methods of classes which are not public themselves
+                method.setAccessible(true);
+                final MethodHandle handle = MethodHandles.lookup().unreflect(method);
+                return adapt(handle, Modifier.isStatic(method.getModifiers()));
+            }
+            final Field field = field(type, propertyName);
+            if (field != null) {
+                field.setAccessible(true);
+                final MethodHandle handle = MethodHandles.lookup().unreflectGetter(field);
+                return adapt(handle, Modifier.isStatic(field.getModifiers()));
+            }
+        }
+        catch (final IllegalAccessException | RuntimeException e) {
+            // such as members of modules which are not open to us, left to ST
+        }
+        return NONE;
+    }
+
+    private static MethodHandle adapt(final MethodHandle handle, final boolean isStatic) {
+        final MethodHandle instance = isStatic ? MethodHandles.dropArguments(handle, 0, Object.class) : handle;
+        return instance.asType(ACCESSOR_TYPE);
+    }
+
+    private static Method method(final Class<?> type, final String name) {
+        try {
+            return type.getMethod(name);
+        }
+        catch (final NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static Field field(final Class<?> type, final String name) {
+        try {
+            return type.getField(name);
+        }
+        catch (final NoSuchFieldException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Whether the type is a record, without {@code Class.isRecord}, which this library cannot call yet.
+     */
+    private static boolean isRecord(final Class<?> type) {
+        final Class<?> superclass = type.getSuperclass();
+        return superclass != null && "java.lang.Record".equals(superclass.getName());
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.compiler.Bytecode;
+import org.stringtemplate.v4.compiler.CompiledST;
+import org.stringtemplate.v4.compiler.FormalArgument;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Helpers for working with ST4's compiled template representation.
+ */
+final class CompiledTemplates {
+
+    private CompiledTemplates() {
+    }
+
+    /**
+     * True if the template only writes text, so renders the same no matter which attributes are set.
+     */
+    static boolean isConstant(final CompiledST impl) {
+        int ip = 0;
+        while (ip < impl.codeSize) {
+            final int opcode = impl.instrs[ip];
+            switch (opcode) {
+                case Bytecode.INSTR_WRITE_STR:
+                case Bytecode.INSTR_LOAD_STR:
+                case Bytecode.INSTR_WRITE:
+                case Bytecode.INSTR_INDENT:
+                case Bytecode.INSTR_DEDENT:
+                case Bytecode.INSTR_NEWLINE:
+                case Bytecode.INSTR_NOOP:
+                    break;
+                default:
+                    return false;
+            }
+            ip += 1 + operandCount(opcode) * Bytecode.OPND_SIZE_IN_BYTES;
+        }
+        return true;
+    }
+
+    /**
+     * Names of the attributes a template may read, directly, through default argument values, or through the
+     * templates it calls, which see the caller's attributes by dynamic scoping. The result may name attributes which
+     * are never read, but never misses one. Names of dictionaries are left out, as declaring them would hide the
+     * dictionaries; a context attribute named like a dictionary no longer hides it. Returns null if it cannot be
+     * worked out, such as when the template calls templates by computed names.
+     */
+    static Set<String> referencedAttributes(final STGroup group, final CompiledST impl) {
+        final Set<String> names = new LinkedHashSet<>();
+        final Set<CompiledST> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        return collectReferences(group, impl, names, seen) ? names : null;
+    }
+
+    private static boolean collectReferences(final STGroup group,
+                                             final CompiledST impl,
+                                             final Set<String> names,
+                                             final Set<CompiledST> seen) {
+        if (!seen.add(impl)) {
+            return true;
+        }
+        if (impl.formalArguments != null) {
+            for (final FormalArgument arg : impl.formalArguments.values()) {
+                names.add(arg.name);
+                if (arg.compiledDefaultValue != null
+                    && !collectReferences(group, arg.compiledDefaultValue, names, seen)) {
+                    return false;
+                }
+            }
+        }
+        if (impl.implicitlyDefinedTemplates != null) {
+            for (final CompiledST sub : impl.implicitlyDefinedTemplates) {
+                if (!collectReferences(group, sub, names, seen)) {
+                    return false;
+                }
+            }
+        }
+
+        int ip = 0;
+        while (ip < impl.codeSize) {
+            final int opcode = impl.instrs[ip];
+            final int operands = operandCount(opcode);
+            if (operands < 0) {
+                return false;
+            }
+            switch (opcode) {
+                case Bytecode.INSTR_LOAD_ATTR: {
+                    final String name = impl.strings[operand(impl.instrs, ip + 1)];
+                    if (!isDictionary(impl.nativeGroup, name, Collections.newSetFromMap(new IdentityHashMap<>()))) {
+                        names.add(name);
+                    }
+                    break;
+                }
+                case Bytecode.INSTR_NEW:
+                case Bytecode.INSTR_NEW_BOX_ARGS: {
+                    final CompiledST callee = group.lookupTemplate(impl.strings[operand(impl.instrs, ip + 1)]);
+                    // calls to undefined templates render nothing
+                    if (callee != null && !collectReferences(group, callee, names, seen)) {
+                        return false;
+                    }
+                    break;
+                }
+                case Bytecode.INSTR_NEW_IND:
+                case Bytecode.INSTR_SUPER_NEW:
+                case Bytecode.INSTR_SUPER_NEW_BOX_ARGS:
+                    return false;
+                default:
+                    break;
+            }
+            ip += 1 + operands * Bytecode.OPND_SIZE_IN_BYTES;
+        }
+        return true;
+    }
+
+    /**
+     * True if the name is a dictionary of the group or a group it imports, where ST looks for names which are not
+     * attributes.
+     */
+    private static boolean isDictionary(final STGroup group, final String name, final Set<STGroup> seen) {
+        if (group == null || !seen.add(group)) {
+            return false;
+        }
+        if (group.isDictionary(name)) {
+            return true;
+        }
+        final List<STGroup> imports = group.getImportedGroups();
+        if (imports != null) {
+            for (final STGroup imported : imports) {
+                if (isDictionary(imported, name, seen)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a template which declares all of the given names as formal arguments, so values for them can be added
+     * to its instances, and templates it calls find them by dynamic scoping. The bytecode only refers to the
+     * arguments it was compiled with by index, and those keep their index, as new arguments are appended.
+     */
+    static CompiledST withArguments(final CompiledST impl, final Set<String> names) {
+        if (impl.formalArguments != null && impl.formalArguments.keySet().containsAll(names)) {
+            return impl;
+        }
+        if (impl.formalArguments == null && names.isEmpty()) {
+            return impl;
+        }
+        final CompiledST copy = copyOf(impl);
+        copy.hasFormalArgs = true;
+        for (final String name : names) {
+            if (copy.formalArguments == null || !copy.formalArguments.containsKey(name)) {
+                copy.addArg(new FormalArgument(name));
+            }
+        }
+        return copy;
+    }
+
+    private static int operand(final byte[] instrs, final int index) {
+        return ((instrs[index] & 0xFF) << 8) | (instrs[index + 1] & 0xFF);
+    }
+
+    /**
+     * Number of operands following an opcode, or -1 for opcodes we do not know about. ST does not expose its
+     * instruction table, so this mirrors {@link Bytecode}.
+     */
+    static int operandCount(final int opcode) {
+        switch (opcode) {
+            case Bytecode.INSTR_NEW:
+            case Bytecode.INSTR_SUPER_NEW:
+                return 2;
+            case Bytecode.INSTR_LOAD_STR:
+            case Bytecode.INSTR_LOAD_ATTR:
+            case Bytecode.INSTR_LOAD_LOCAL:
+            case Bytecode.INSTR_LOAD_PROP:
+            case Bytecode.INSTR_STORE_OPTION:
+            case Bytecode.INSTR_STORE_ARG:
+            case Bytecode.INSTR_NEW_IND:
+            case Bytecode.INSTR_NEW_BOX_ARGS:
+            case Bytecode.INSTR_SUPER_NEW_BOX_ARGS:
+            case Bytecode.INSTR_ROT_MAP:
+            case Bytecode.INSTR_ZIP_MAP:
+            case Bytecode.INSTR_BR:
+            case Bytecode.INSTR_BRF:
+            case Bytecode.INSTR_PASSTHRU:
+            case Bytecode.INSTR_INDENT:
+            case Bytecode.INSTR_WRITE_STR:
+                return 1;
+            case Bytecode.INSTR_LOAD_PROP_IND:
+            case Bytecode.INSTR_WRITE:
+            case Bytecode.INSTR_WRITE_OPT:
+            case Bytecode.INSTR_MAP:
+            case Bytecode.INSTR_OPTIONS:
+            case Bytecode.INSTR_ARGS:
+            case Bytecode.INSTR_LIST:
+            case Bytecode.INSTR_ADD:
+            case Bytecode.INSTR_TOSTR:
+            case Bytecode.INSTR_FIRST:
+            case Bytecode.INSTR_LAST:
+            case Bytecode.INSTR_REST:
+            case Bytecode.INSTR_TRUNC:
+            case Bytecode.INSTR_STRIP:
+            case Bytecode.INSTR_TRIM:
+            case Bytecode.INSTR_LENGTH:
+            case Bytecode.INSTR_STRLEN:
+            case Bytecode.INSTR_REVERSE:
+            case Bytecode.INSTR_NOT:
+            case Bytecode.INSTR_OR:
+            case Bytecode.INSTR_AND:
+            case Bytecode.INSTR_DEDENT:
+            case Bytecode.INSTR_NEWLINE:
+            case Bytecode.INSTR_NOOP:
+            case Bytecode.INSTR_POP:
+            case Bytecode.INSTR_NULL:
+            case Bytecode.INSTR_TRUE:
+            case Bytecode.INSTR_FALSE:
+                return 0;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Shallow copy of a compiled template. The bytecode and string table are shared, the formal argument map is not,
+     * so arguments may be added to the copy without affecting the original.
+     */
+    static CompiledST copyOf(final CompiledST impl) {
+        final CompiledST copy = new CompiledST();
+        copy.name = impl.name;
+        copy.template = impl.template;
+        copy.templateDefStartToken = impl.templateDefStartToken;
+        copy.tokens = impl.tokens;
+        copy.ast = impl.ast;
+        if (impl.formalArguments != null) {
+            copy.formalArguments = Collections.synchronizedMap(new LinkedHashMap<>(impl.formalArguments));
+        }
+        copy.hasFormalArgs = impl.hasFormalArgs;
+        copy.numberOfArgsWithDefaultValues = impl.numberOfArgsWithDefaultValues;
+        copy.implicitlyDefinedTemplates = impl.implicitlyDefinedTemplates;
+        copy.nativeGroup = impl.nativeGroup;
+        copy.isRegion = impl.isRegion;
+        copy.regionDefType = impl.regionDefType;
+        copy.isAnonSubtemplate = impl.isAnonSubtemplate;
+        copy.strings = impl.strings;
+        copy.instrs = impl.instrs;
+        copy.codeSize = impl.codeSize;
+        copy.sourceMap = impl.sourceMap;
+        return copy;
+    }
+}
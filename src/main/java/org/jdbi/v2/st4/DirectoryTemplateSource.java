@@ -0,0 +1,120 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Every group file in a directory tree, indexed in one walk of the tree, and read each time it is loaded, mapping
+ * files of at least {@link #MAP_THRESHOLD} bytes into memory.
+ */
+final class DirectoryTemplateSource implements TemplateSource {
+
+    static final long MAP_THRESHOLD = 64 * 1024;
+
+    private static final String GROUP_FILE_EXTENSION = ".stg";
+
+    private final Path root;
+    private final Map<String, URL> urls;
+    private final Map<String, Path> files;
+
+    DirectoryTemplateSource(final Path root) throws IOException {
+        this.root = root.toAbsolutePath().normalize();
+        final Map<String, URL> urls = new HashMap<>();
+        final Map<String, Path> files = new HashMap<>();
+        try (Stream<Path> tree = Files.walk(this.root, FileVisitOption.FOLLOW_LINKS)) {
+            tree.filter((p) -> p.getFileName().toString().endsWith(GROUP_FILE_EXTENSION) && Files.isRegularFile(p))
+                .forEach((p) -> {
+                    final URL url = toUrl(p);
+                    urls.put(relative(p), url);
+                    files.put(url.toString(), p);
+                });
+        }
+        catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+        this.urls = Collections.unmodifiableMap(urls);
+        this.files = files;
+    }
+
+    @Override
+    public URL find(final String path) {
+        return urls.get(path.startsWith("/") ? path.substring(1) : path);
+    }
+
+    @Override
+    public CharBuffer read(final URL url) throws IOException {
+        final Path file = files.get(url.toString());
+        if (file == null) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to be a group file");
+            }
+            final ByteBuffer bytes;
+            if (size >= MAP_THRESHOLD) {
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            else {
+                bytes = ByteBuffer.allocate((int) size);
+                while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                    // read until full, or the file got shorter
+                }
+                bytes.flip();
+            }
+            // sized by UTF-8's one char per byte at most, so the chars are never copied to grow the buffer
+            return StandardCharsets.UTF_8.decode(bytes);
+        }
+    }
+
+    @Override
+    public Collection<String> paths() {
+        return urls.keySet();
+    }
+
+    private String relative(final Path file) {
+        return root.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+    }
+
+    private static URL toUrl(final Path file) {
+        try {
+            return file.toUri().toURL();
+        }
+        catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DirectoryTemplateSource{" + root + ", groups=" + urls.size() + '}';
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Helpers for memoizing values as futures, so a value is computed by one thread while the others wait for it, and
+ * only for it, rather than computing it inside a map's lock.
+ */
+final class Futures {
+
+    private Futures() {
+    }
+
+    /**
+     * Returns the value for the key, computing it on this thread unless another thread is computing it already, in
+     * which case this one waits for it. Failures are not remembered: the next caller computes the value again.
+     */
+    static <K, V> V memoize(final ConcurrentMap<K, CompletableFuture<V>> map,
+                            final K key,
+                            final Supplier<V> supplier) {
+        CompletableFuture<V> future = map.get(key);
+        if (future == null) {
+            final CompletableFuture<V> created = new CompletableFuture<>();
+            future = map.putIfAbsent(key, created);
+            if (future == null) {
+                try {
+                    final V value = supplier.get();
+                    created.complete(value);
+                    return value;
+                }
+                catch (final RuntimeException | Error e) {
+                    map.remove(key, created);
+                    created.completeExceptionally(e);
+                    throw e;
+                }
+            }
+        }
+        return join(future);
+    }
+
+    /**
+     * Waits for the future, and returns its value, or throws what it failed with, unwrapped if it is unchecked.
+     */
+    static <V> V join(final CompletableFuture<V> future) {
+        try {
+            return future.join();
+        }
+        catch (final CompletionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
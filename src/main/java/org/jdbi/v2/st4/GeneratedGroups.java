@@ -0,0 +1,182 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.STGroupFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Finds the {@link GeneratedRenderers} for a group file, by the name {@link SqlTemplateProcessor} gives them.
+ */
+final class GeneratedGroups {
+
+    private static final String SUFFIX = "_SqlRenderers";
+
+    /**
+     * The one instance of each generated class, held by the class itself.
+     */
+    private static final ClassValue<GeneratedRenderers> INSTANCES = new ClassValue<GeneratedRenderers>() {
+        @Override
+        protected GeneratedRenderers computeValue(final Class<?> type) {
+            try {
+                return (GeneratedRenderers) type.getDeclaredConstructor().newInstance();
+            }
+            catch (final ReflectiveOperationException e) {
+                throw new IllegalStateException("cannot create " + type.getName(), e);
+            }
+        }
+    };
+
+    private GeneratedGroups() {
+    }
+
+    /**
+     * Name of the class generated for a group file at the given classpath path, so
+     * {@code com/example/Foo.Bar.sql.stg} is rendered by {@code com.example.Foo_Bar_sql_stg_SqlRenderers}.
+     */
+    static String className(final String resource) {
+        final String path = resource.startsWith("/") ? resource.substring(1) : resource;
+        final int slash = path.lastIndexOf('/');
+        final String file = path.substring(slash + 1);
+        final StringBuilder name = new StringBuilder();
+        if (file.isEmpty() || !Character.isJavaIdentifierStart(file.charAt(0))) {
+            name.append('_');
+        }
+        for (int i = 0; i < file.length(); i++) {
+            final char c = file.charAt(i);
+            name.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        }
+        name.append(SUFFIX);
+        return slash < 0 ? name.toString() : path.substring(0, slash).replace('/', '.') + "." + name;
+    }
+
+    /**
+     * Returns the generated renderers for the group file at the given classpath path, or null if the index lists none,
+     * or the group or one of its imports changed since they were generated.
+     * <p>
+     * Generated renderers write values with toString, they know nothing of attribute renderers. Only groups this
+     * library loads from group files get them, and no attribute renderers can be registered on those.
+     */
+    static GeneratedRenderers find(final String resource, final ClassLoader loader, final STGroup group) {
+        if (resource == null) {
+            return null;
+        }
+        final ClassLoader classLoader = loader != null ? loader : GeneratedGroups.class.getClassLoader();
+        final GroupIndex.Renderers indexed = GroupIndex.of(classLoader)
+                                                       .renderers(resource.startsWith("/")
+                                                                  ? resource.substring(1)
+                                                                  : resource);
+        if (indexed == null || !indexed.checksum().equals(checksum(group))) {
+            return null;
+        }
+        final GeneratedRenderers renderers;
+        try {
+            final Class<?> type = Class.forName(indexed.className(), true, classLoader);
+            if (!GeneratedRenderers.class.isAssignableFrom(type)) {
+                return null;
+            }
+            renderers = INSTANCES.get(type);
+        }
+        catch (final ReflectiveOperationException | LinkageError | IllegalStateException e) {
+            return null;
+        }
+        // a class left by an earlier build may be compiled again, with the checksum of its group at the time
+        return renderers.checksum().equals(indexed.checksum()) ? new WeakRenderers(renderers) : null;
+    }
+
+    /**
+     * Checksum of the files of a group and the groups it imports, or null if one of them cannot be read.
+     */
+    static String checksum(final STGroup group) {
+        final CRC32 crc = new CRC32();
+        try {
+            update(crc, group, Collections.newSetFromMap(new IdentityHashMap<>()));
+        }
+        catch (final IOException e) {
+            return null;
+        }
+        return Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * Generated renderers held weakly, along with what the group needs to know of them.
+     */
+    private static final class WeakRenderers implements GeneratedRenderers {
+        private final WeakReference<GeneratedRenderers> renderers;
+        private final String checksum;
+        private final Set<String> templateNames;
+
+        private WeakRenderers(final GeneratedRenderers renderers) {
+            this.renderers = new WeakReference<>(renderers);
+            this.checksum = renderers.checksum();
+            this.templateNames = Collections.unmodifiableSet(new HashSet<>(renderers.templateNames()));
+        }
+
+        @Override
+        public String checksum() {
+            return checksum;
+        }
+
+        @Override
+        public Set<String> templateNames() {
+            return templateNames;
+        }
+
+        @Override
+        public boolean render(final String name,
+                              final Map<String, Object> attributes,
+                              final boolean autoIndent,
+                              final StringBuilder out) {
+            final GeneratedRenderers generated = renderers.get();
+            return generated != null && generated.render(name, attributes, autoIndent, out);
+        }
+    }
+
+    private static void update(final CRC32 crc, final STGroup group, final Set<STGroup> seen) throws IOException {
+        if (!seen.add(group)) {
+            return;
+        }
+        group.load();
+        if (group instanceof STGroupFile) {
+            final URL url = ((STGroupFile) group).url;
+            if (url != null) {
+                final byte[] buffer = new byte[8192];
+                try (InputStream in = url.openStream()) {
+                    int n;
+                    while ((n = in.read(buffer)) > 0) {
+                        crc.update(buffer, 0, n);
+                    }
+                }
+            }
+        }
+        final List<STGroup> imports = group.getImportedGroups();
+        if (imports != null) {
+            for (final STGroup imported : imports) {
+                update(crc, imported, seen);
+            }
+        }
+    }
+}
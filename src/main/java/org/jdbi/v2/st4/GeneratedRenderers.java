@@ -0,0 +1,44 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Renderers for the templates of one group file, generated at build time by {@link SqlTemplateProcessor}. Not meant
+ * to be implemented by hand.
+ * <p>
+ * {@link ST4StatementLocator} uses them in place of ST for the templates they cover, as long as the group file and
+ * the group files it imports are unchanged since the renderers were generated.
+ */
+public interface GeneratedRenderers {
+
+    /**
+     * Checksum of the group file and the group files it imports, as they were when the renderers were generated.
+     */
+    String checksum();
+
+    /**
+     * Names of the templates which have a renderer.
+     */
+    Set<String> templateNames();
+
+    /**
+     * Renders the named template into the builder, and returns true, or returns false if there is no renderer for
+     * it. Throws {@link RendererSupport.Unsupported} if an attribute value is one the renderer cannot write the way
+     * ST would, in which case the template must be rendered by ST instead.
+     */
+    boolean render(String name, Map<String, Object> attributes, boolean autoIndent, StringBuilder out);
+}
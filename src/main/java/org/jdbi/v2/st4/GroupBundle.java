@@ -0,0 +1,606 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.antlr.runtime.CommonToken;
+import org.antlr.runtime.Token;
+import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.STGroupFile;
+import org.stringtemplate.v4.compiler.Bytecode;
+import org.stringtemplate.v4.compiler.CompiledST;
+import org.stringtemplate.v4.compiler.FormalArgument;
+import org.stringtemplate.v4.misc.Interval;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * The compiled templates of a group file, written next to it at build time by {@link SqlTemplateProcessor}, so the
+ * group can be loaded without lexing, parsing and compiling it. Only used while the group file and its imports have
+ * the checksum, and ST the bytecode format, they were bundled with.
+ */
+final class GroupBundle {
+
+    static final String SUFFIX = ".bundle";
+
+    private static final int MAGIC = 0x53543442;
+    private static final int VERSION = 3;
+    private static final int FORMAT = format();
+    private static final String GROUP_FILE_EXTENSION = ".stg";
+
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int DICT_KEY = 2;
+    private static final int TRUE = 3;
+    private static final int FALSE = 4;
+    private static final int EMPTY_LIST = 5;
+    private static final int TEMPLATE = 6;
+
+    private final long checksum;
+    private final List<String> imports;
+    private final Map<String, CompiledST> templates;
+    private final Map<String, String> aliases;
+    private final Map<String, Map<String, Object>> dictionaries;
+    private final List<CompiledST> inline;
+
+    private GroupBundle(final long checksum,
+                        final List<String> imports,
+                        final Map<String, CompiledST> templates,
+                        final Map<String, String> aliases,
+                        final Map<String, Map<String, Object>> dictionaries,
+                        final List<CompiledST> inline) {
+        this.checksum = checksum;
+        this.imports = imports;
+        this.templates = templates;
+        this.aliases = aliases;
+        this.dictionaries = dictionaries;
+        this.inline = inline;
+    }
+
+    /**
+     * Loads the group file at the URL from its bundle, or returns null if it has none, or the group file changed
+     * since the bundle was written.
+     */
+    static STGroupFile load(final URL url) {
+        return load(url, null, null);
+    }
+
+    /**
+     * Loads the group file at the URL from its bundle, like {@link #load(URL)}, importing group files from the cache,
+     * if there is one.
+     */
+    static STGroupFile load(final URL url, final STGroupCache cache, final ClassLoader scope) {
+        final GroupBundle bundle;
+        try {
+            try (InputStream in = new URL(url.toString() + SUFFIX).openStream()) {
+                bundle = read(in);
+            }
+            if (bundle == null || bundle.checksum != checksum(url, bundle.imports)) {
+                return null;
+            }
+        }
+        catch (final IOException | RuntimeException e) {
+            return null;
+        }
+        return new BundledGroupFile(url, bundle, cache, scope);
+    }
+
+    /**
+     * Writes the bundle of a loaded group file, and returns true, or returns false if the group cannot be bundled.
+     */
+    static boolean write(final RecordingGroupFile group, final OutputStream out) throws IOException {
+        final long checksum = checksum(group.url, group.imports);
+        if (checksum < 0) {
+            return false;
+        }
+        // sorted, so the same group file always gives the same bundle
+        final Map<String, CompiledST> templates = new TreeMap<>();
+        final Map<String, String> aliases = new TreeMap<>();
+        for (final Map.Entry<String, CompiledST> e : group.definedTemplates().entrySet()) {
+            final CompiledST impl = e.getValue();
+            if (impl == null || impl.nativeGroup != group) {
+                continue;
+            }
+            if (e.getKey().equals(impl.name)) {
+                templates.put(e.getKey(), impl);
+            }
+            else {
+                aliases.put(e.getKey(), impl.name);
+            }
+        }
+        for (final String target : aliases.values()) {
+            if (!templates.containsKey(target)) {
+                return false;
+            }
+        }
+
+        // written aside first, as what cannot be bundled only turns up while writing
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream data = new DataOutputStream(bytes);
+        final TemplateWriter writer = new TemplateWriter(data, group, templates);
+        try {
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeInt(FORMAT);
+            data.writeLong(checksum);
+            data.writeInt(group.imports.size());
+            for (final String imported : group.imports) {
+                writeString(data, imported);
+            }
+            data.writeInt(templates.size());
+            for (final CompiledST impl : templates.values()) {
+                writer.template(impl);
+            }
+            data.writeInt(aliases.size());
+            for (final Map.Entry<String, String> alias : aliases.entrySet()) {
+                writeString(data, alias.getKey());
+                writeString(data, alias.getValue());
+            }
+            final Map<String, Map<String, Object>> dictionaries = new TreeMap<>(group.dictionaries());
+            data.writeInt(dictionaries.size());
+            for (final Map.Entry<String, Map<String, Object>> dictionary : dictionaries.entrySet()) {
+                writeString(data, dictionary.getKey());
+                data.writeInt(dictionary.getValue().size());
+                for (final Map.Entry<String, Object> entry : dictionary.getValue().entrySet()) {
+                    writeString(data, entry.getKey());
+                    writer.value(entry.getValue());
+                }
+            }
+        }
+        catch (final Unbundleable e) {
+            return false;
+        }
+        data.flush();
+        bytes.writeTo(out);
+        return true;
+    }
+
+    /**
+     * CRC32 of the group file at the URL and the group files it imports, or -1 if one of them cannot be read.
+     */
+    static long checksum(final URL url, final List<String> imports) {
+        final CRC32 crc = new CRC32();
+        try {
+            update(crc, url);
+            for (final String imported : imports) {
+                final String fileName = imported.substring(1, imported.length() - 1);
+                if (fileName.endsWith(GROUP_FILE_EXTENSION)) {
+                    final URL resolved = SharedImportsGroupFile.resolve(url, fileName);
+                    if (resolved == null) {
+                        return -1;
+                    }
+                    update(crc, resolved);
+                }
+            }
+        }
+        catch (final IOException e) {
+            return -1;
+        }
+        return crc.getValue();
+    }
+
+    private static void update(final CRC32 crc, final URL url) throws IOException {
+        final byte[] buffer = new byte[8192];
+        try (InputStream in = url.openStream()) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, n);
+            }
+        }
+    }
+
+    /**
+     * Fingerprint of the version of ST and its bytecode instructions, which bundles must be read by.
+     */
+    private static int format() {
+        final CRC32 crc = new CRC32();
+        final String version = ST.class.getPackage().getImplementationVersion();
+        crc.update(String.valueOf(version).getBytes(StandardCharsets.UTF_8));
+        for (final Bytecode.Instruction instruction : Bytecode.instructions) {
+            if (instruction == null) {
+                crc.update(0);
+                continue;
+            }
+            crc.update(instruction.name.getBytes(StandardCharsets.UTF_8));
+            crc.update(instruction.nopnds);
+            for (final Bytecode.OperandType type : instruction.type) {
+                crc.update(type == null ? 0 : type.ordinal() + 1);
+            }
+        }
+        return (int) crc.getValue();
+    }
+
+    private static GroupBundle read(final InputStream in) throws IOException {
+        final DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC || data.readInt() != VERSION || data.readInt() != FORMAT) {
+            return null;
+        }
+        final long checksum = data.readLong();
+        final int importCount = data.readInt();
+        final List<String> imports = new ArrayList<>(importCount);
+        for (int i = 0; i < importCount; i++) {
+            imports.add(readString(data));
+        }
+        final TemplateReader reader = new TemplateReader(data);
+        final int templateCount = data.readInt();
+        final Map<String, CompiledST> templates = new LinkedHashMap<>();
+        for (int i = 0; i < templateCount; i++) {
+            final CompiledST impl = reader.template();
+            templates.put(impl.name, impl);
+        }
+        final int aliasCount = data.readInt();
+        final Map<String, String> aliases = new LinkedHashMap<>();
+        for (int i = 0; i < aliasCount; i++) {
+            aliases.put(readString(data), readString(data));
+        }
+        final int dictionaryCount = data.readInt();
+        final Map<String, Map<String, Object>> dictionaries = new LinkedHashMap<>();
+        for (int i = 0; i < dictionaryCount; i++) {
+            final String name = readString(data);
+            final int entryCount = data.readInt();
+            final Map<String, Object> dictionary = new LinkedHashMap<>();
+            for (int j = 0; j < entryCount; j++) {
+                dictionary.put(readString(data), reader.value());
+            }
+            dictionaries.put(name, dictionary);
+        }
+        if (!reader.link(templates)) {
+            return null;
+        }
+        return new GroupBundle(checksum, imports, templates, aliases, dictionaries, reader.inline);
+    }
+
+    private static void writeString(final DataOutputStream data, final String s) throws IOException {
+        if (s == null) {
+            data.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    private static String readString(final DataInputStream data) throws IOException {
+        final int length = data.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        data.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Thrown while writing a bundle when the group holds something a bundle cannot.
+     */
+    private static final class Unbundleable extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private Unbundleable() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Writes compiled templates and values. Templates refer to the subtemplates and regions they define by name;
+     * those are templates of the group themselves, and must be written with them.
+     */
+    private static final class TemplateWriter {
+        private final DataOutputStream data;
+        private final STGroup group;
+        private final Map<String, CompiledST> templates;
+
+        private TemplateWriter(final DataOutputStream data, final STGroup group, final Map<String, CompiledST> templates) {
+            this.data = data;
+            this.group = group;
+            this.templates = templates;
+        }
+
+        private void template(final CompiledST impl) throws IOException {
+            writeString(data, impl.name);
+            writeString(data, impl.prefix);
+            writeString(data, impl.template);
+            data.writeBoolean(impl.isAnonSubtemplate);
+            data.writeBoolean(impl.hasFormalArgs);
+            data.writeBoolean(impl.isRegion);
+            writeString(data, impl.regionDefType == null ? null : impl.regionDefType.name());
+            data.writeInt(impl.numberOfArgsWithDefaultValues);
+            if (impl.formalArguments == null) {
+                data.writeInt(-1);
+            }
+            else {
+                final FormalArgument[] args = new FormalArgument[impl.formalArguments.size()];
+                for (final FormalArgument arg : impl.formalArguments.values()) {
+                    args[arg.index] = arg;
+                }
+                data.writeInt(args.length);
+                for (final FormalArgument arg : args) {
+                    writeString(data, arg.name);
+                    final Token token = arg.defaultValueToken;
+                    data.writeInt(token == null ? -1 : token.getType());
+                    writeString(data, token == null ? null : token.getText());
+                    value(arg.defaultValue);
+                    data.writeBoolean(arg.compiledDefaultValue != null);
+                    if (arg.compiledDefaultValue != null) {
+                        template(arg.compiledDefaultValue);
+                    }
+                }
+            }
+            final String[] strings = impl.strings == null ? new String[0] : impl.strings;
+            data.writeInt(strings.length);
+            for (final String s : strings) {
+                writeString(data, s);
+            }
+            data.writeInt(impl.codeSize);
+            data.write(impl.instrs, 0, impl.codeSize);
+            final Interval[] sourceMap = impl.sourceMap == null ? new Interval[0] : impl.sourceMap;
+            data.writeInt(sourceMap.length);
+            for (final Interval interval : sourceMap) {
+                data.writeBoolean(interval != null);
+                if (interval != null) {
+                    data.writeInt(interval.a);
+                    data.writeInt(interval.b);
+                }
+            }
+            if (impl.implicitlyDefinedTemplates == null) {
+                data.writeInt(-1);
+            }
+            else {
+                data.writeInt(impl.implicitlyDefinedTemplates.size());
+                for (final CompiledST sub : impl.implicitlyDefinedTemplates) {
+                    // by name, as a region may have been defined again since, and is looked up by name when rendered
+                    if (!templates.containsKey(sub.name)) {
+                        throw new Unbundleable();
+                    }
+                    writeString(data, sub.name);
+                }
+            }
+        }
+
+        /**
+         * Writes a dictionary value or default argument value, which the group parser only makes of these kinds.
+         */
+        private void value(final Object value) throws IOException {
+            if (value == null) {
+                data.writeByte(NULL);
+            }
+            // the key of a dictionary lookup, which ST tells from a string "key" by identity
+            else if (value == STGroup.DICT_KEY) {
+                data.writeByte(DICT_KEY);
+            }
+            else if (value instanceof String) {
+                data.writeByte(STRING);
+                writeString(data, (String) value);
+            }
+            else if (value instanceof Boolean) {
+                data.writeByte((Boolean) value ? TRUE : FALSE);
+            }
+            else if (value instanceof List && ((List<?>) value).isEmpty()) {
+                data.writeByte(EMPTY_LIST);
+            }
+            else if (value instanceof ST && ((ST) value).impl.nativeGroup == group) {
+                data.writeByte(TEMPLATE);
+                template(((ST) value).impl);
+            }
+            else {
+                throw new Unbundleable();
+            }
+        }
+    }
+
+    /**
+     * Reads what {@link TemplateWriter} wrote, and links templates to the subtemplates they define once all are read.
+     */
+    private static final class TemplateReader {
+        private final DataInputStream data;
+        private final Map<CompiledST, List<String>> implicit = new IdentityHashMap<>();
+        private final List<CompiledST> inline = new ArrayList<>();
+
+        private TemplateReader(final DataInputStream data) {
+            this.data = data;
+        }
+
+        private CompiledST template() throws IOException {
+            final CompiledST impl = new CompiledST();
+            impl.name = readString(data);
+            impl.prefix = readString(data);
+            impl.template = readString(data);
+            impl.isAnonSubtemplate = data.readBoolean();
+            impl.hasFormalArgs = data.readBoolean();
+            impl.isRegion = data.readBoolean();
+            final String regionDefType = readString(data);
+            impl.regionDefType = regionDefType == null ? null : ST.RegionType.valueOf(regionDefType);
+            impl.numberOfArgsWithDefaultValues = data.readInt();
+            final int argCount = data.readInt();
+            for (int i = 0; i < argCount; i++) {
+                final String name = readString(data);
+                final int tokenType = data.readInt();
+                final String tokenText = readString(data);
+                final FormalArgument arg = tokenType < 0
+                                           ? new FormalArgument(name)
+                                           : new FormalArgument(name, new CommonToken(tokenType, tokenText));
+                arg.defaultValue = value();
+                if (data.readBoolean()) {
+                    arg.compiledDefaultValue = template();
+                    inline.add(arg.compiledDefaultValue);
+                }
+                impl.addArg(arg);
+            }
+            impl.strings = new String[data.readInt()];
+            for (int i = 0; i < impl.strings.length; i++) {
+                impl.strings[i] = readString(data);
+            }
+            impl.codeSize = data.readInt();
+            impl.instrs = new byte[impl.codeSize];
+            data.readFully(impl.instrs);
+            impl.sourceMap = new Interval[data.readInt()];
+            for (int i = 0; i < impl.sourceMap.length; i++) {
+                if (data.readBoolean()) {
+                    impl.sourceMap[i] = new Interval(data.readInt(), data.readInt());
+                }
+            }
+            final int implicitCount = data.readInt();
+            if (implicitCount >= 0) {
+                final List<String> names = new ArrayList<>(implicitCount);
+                for (int i = 0; i < implicitCount; i++) {
+                    names.add(readString(data));
+                }
+                implicit.put(impl, names);
+            }
+            return impl;
+        }
+
+        /**
+         * Reads a value, with templates read as their {@link CompiledST}, which becomes an {@link ST} of the group
+         * once it is loaded.
+         */
+        private Object value() throws IOException {
+            final int kind = data.readByte();
+            switch (kind) {
+                case NULL:
+                    return null;
+                case STRING:
+                    return readString(data);
+                case DICT_KEY:
+                    return STGroup.DICT_KEY;
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case EMPTY_LIST:
+                    return Collections.emptyList();
+                case TEMPLATE:
+                    final CompiledST impl = template();
+                    inline.add(impl);
+                    return impl;
+                default:
+                    throw new IOException("unknown value kind " + kind);
+            }
+        }
+
+        /**
+         * Links every template read to the subtemplates it defines, and returns false if one of them is missing.
+         */
+        private boolean link(final Map<String, CompiledST> templates) {
+            for (final Map.Entry<CompiledST, List<String>> e : implicit.entrySet()) {
+                for (final String name : e.getValue()) {
+                    final CompiledST sub = templates.get(name);
+                    if (sub == null) {
+                        return false;
+                    }
+                    e.getKey().addImplicitlyDefinedTemplate(sub);
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A group file which remembers what it imports, so it can be bundled.
+     */
+    static final class RecordingGroupFile extends STGroupFile {
+        private final List<String> imports = new ArrayList<>();
+
+        RecordingGroupFile(final URL url) {
+            super(url, "UTF-8", '<', '>');
+        }
+
+        @Override
+        public void importTemplates(final Token fileNameToken) {
+            imports.add(fileNameToken.getText());
+            super.importTemplates(fileNameToken);
+        }
+
+        /**
+         * The templates defined by the group file itself, by name, including subtemplates, regions and aliases.
+         */
+        private Map<String, CompiledST> definedTemplates() {
+            return templates;
+        }
+
+        private Map<String, Map<String, Object>> dictionaries() {
+            return dictionaries == null ? Collections.emptyMap() : dictionaries;
+        }
+    }
+
+    /**
+     * A group file whose templates and dictionaries are defined from its bundle rather than parsed from the file.
+     */
+    private static final class BundledGroupFile extends SharedImportsGroupFile {
+        private final GroupBundle bundle;
+
+        private BundledGroupFile(final URL url,
+                                 final GroupBundle bundle,
+                                 final STGroupCache cache,
+                                 final ClassLoader scope) {
+            super(url, cache, scope);
+            this.bundle = bundle;
+        }
+
+        @Override
+        public synchronized void load() {
+            if (alreadyLoaded) {
+                return;
+            }
+            alreadyLoaded = true;
+            for (final String imported : bundle.imports) {
+                importTemplates(new CommonToken(Token.INVALID_TOKEN_TYPE, imported));
+            }
+            for (final CompiledST impl : bundle.templates.values()) {
+                rawDefineTemplate(impl.name, impl, null);
+            }
+            for (final Map.Entry<String, String> alias : bundle.aliases.entrySet()) {
+                rawDefineTemplate(alias.getKey(), bundle.templates.get(alias.getValue()), null);
+            }
+            // default argument values and dictionary templates are compiled in the group, but not defined in it
+            for (final CompiledST impl : bundle.inline) {
+                impl.nativeGroup = this;
+            }
+            for (final Map.Entry<String, Map<String, Object>> dictionary : bundle.dictionaries.entrySet()) {
+                final Map<String, Object> values = new LinkedHashMap<>();
+                for (final Map.Entry<String, Object> entry : dictionary.getValue().entrySet()) {
+                    values.put(entry.getKey(), entry.getValue() instanceof CompiledST
+                                               ? singleton((CompiledST) entry.getValue())
+                                               : entry.getValue());
+                }
+                defineDictionary(dictionary.getKey(), values);
+            }
+        }
+
+        /**
+         * An instance of a dictionary template, made the way ST makes it when it parses the group file.
+         */
+        private ST singleton(final CompiledST impl) {
+            final ST st = createStringTemplateInternally(impl);
+            st.groupThatCreatedThisInstance = this;
+            return st;
+        }
+    }
+}
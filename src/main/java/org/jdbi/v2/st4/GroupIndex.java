@@ -0,0 +1,210 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The group files of sql object types, and their generated renderers, as listed at build time by
+ * {@link SqlTemplateProcessor} in {@value #RESOURCE}, read once per class loader.
+ */
+final class GroupIndex {
+
+    // lines are <binary name of a sql object type>=<path of its group file>
+    static final String RESOURCE = "META-INF/jdbi-st4/index";
+
+    // or renderers:<path of a group file>=<name of its generated renderers> <checksum>
+    static final String RENDERERS = "renderers:";
+
+    private static final GroupIndex EMPTY = new GroupIndex(Collections.emptyMap(), Collections.emptyMap());
+
+    /**
+     * Indexes read per class loader, dropped with it. Guarded by itself, which is not held while reading.
+     */
+    private static final Map<ClassLoader, GroupIndex> INDEXES = new WeakHashMap<>();
+
+    private final Map<String, Entry> entries;
+    private final Map<String, Renderers> renderers;
+
+    private GroupIndex(final Map<String, Entry> entries, final Map<String, Renderers> renderers) {
+        this.entries = entries;
+        this.renderers = renderers;
+    }
+
+    /**
+     * The index of every type the class loader can see.
+     */
+    static GroupIndex of(final ClassLoader classLoader) {
+        if (classLoader == null) {
+            return EMPTY;
+        }
+        synchronized (INDEXES) {
+            final GroupIndex index = INDEXES.get(classLoader);
+            if (index != null) {
+                return index;
+            }
+        }
+        // two threads may both read the index of a class loader, the first one kept is used by both
+        final GroupIndex read = read(classLoader);
+        synchronized (INDEXES) {
+            final GroupIndex index = INDEXES.putIfAbsent(classLoader, read);
+            return index != null ? index : read;
+        }
+    }
+
+    /**
+     * The URL of the group file of the type with the given binary name, or null if it is not indexed.
+     */
+    URL find(final String typeName) {
+        final Entry entry = entries.get(typeName);
+        return entry == null ? null : entry.url;
+    }
+
+    /**
+     * The renderers generated for the group file at the given classpath path, or null if there are none.
+     */
+    Renderers renderers(final String resource) {
+        return renderers.get(resource);
+    }
+
+    /**
+     * Indexed group files, by the binary name of their sql object type.
+     */
+    Map<String, Entry> entries() {
+        return entries;
+    }
+
+    private static GroupIndex read(final ClassLoader classLoader) {
+        final Map<String, Entry> entries = new LinkedHashMap<>();
+        final Map<String, Renderers> renderers = new HashMap<>();
+        final Enumeration<URL> indexes;
+        try {
+            indexes = classLoader.getResources(RESOURCE);
+        }
+        catch (final IOException e) {
+            return EMPTY;
+        }
+        while (indexes.hasMoreElements()) {
+            try {
+                read(indexes.nextElement(), entries, renderers);
+            }
+            catch (final IOException e) {
+                // what was read is used, the rest is looked for on the classpath
+            }
+        }
+        return entries.isEmpty() && renderers.isEmpty()
+               ? EMPTY
+               : new GroupIndex(Collections.unmodifiableMap(entries), renderers);
+    }
+
+    private static void read(final URL index,
+                             final Map<String, Entry> entries,
+                             final Map<String, Renderers> renderers) throws IOException {
+        final String indexUrl = index.toString();
+        if (!indexUrl.endsWith(RESOURCE)) {
+            return;
+        }
+        final String root = indexUrl.substring(0, indexUrl.length() - RESOURCE.length());
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(index.openStream(),
+                                                                          StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                final int eq = line.indexOf('=');
+                if (line.startsWith("#") || eq <= 0 || eq == line.length() - 1) {
+                    continue;
+                }
+                if (line.startsWith(RENDERERS)) {
+                    final String[] generated = line.substring(eq + 1).trim().split(" ");
+                    if (generated.length == 2) {
+                        renderers.putIfAbsent(line.substring(RENDERERS.length(), eq).trim(),
+                                              new Renderers(generated[0], generated[1]));
+                    }
+                    continue;
+                }
+                final String type = line.substring(0, eq).trim();
+                final String resource = line.substring(eq + 1).trim();
+                if (entries.containsKey(type)) {
+                    // the first index on the classpath wins, like the first class of a name
+                    continue;
+                }
+                try {
+                    // with the index as context, so the URL gets the handler of the index
+                    entries.put(type, new Entry(resource, new URL(index, root + resource)));
+                }
+                catch (final MalformedURLException e) {
+                    // looked for on the classpath
+                }
+            }
+        }
+    }
+
+    /**
+     * An indexed group file.
+     */
+    static final class Entry {
+        private final String resource;
+        private final URL url;
+
+        private Entry(final String resource, final URL url) {
+            this.resource = resource;
+            this.url = url;
+        }
+
+        /**
+         * Classpath path of the group file, without a leading '/'.
+         */
+        String resource() {
+            return resource;
+        }
+
+        URL url() {
+            return url;
+        }
+    }
+
+    /**
+     * Renderers generated for a group file.
+     */
+    static final class Renderers {
+        private final String className;
+        private final String checksum;
+
+        private Renderers(final String className, final String checksum) {
+            this.className = className;
+            this.checksum = checksum;
+        }
+
+        String className() {
+            return className;
+        }
+
+        /**
+         * Checksum of the group file and its imports the renderers were generated from.
+         */
+        String checksum() {
+            return checksum;
+        }
+    }
+}
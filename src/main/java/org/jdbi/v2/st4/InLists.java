@@ -0,0 +1,149 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.skife.jdbi.v2.SQLStatement;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Binds the values of an IN list as named parameters, padded with the last value to one of a few lengths, so a
+ * template like {@code where id in (<ids; separator=",">)} renders to a handful of distinct statements.
+ *
+ * @see BindBucketed
+ */
+public final class InLists {
+
+    /**
+     * What the parameters beyond the values are bound to.
+     */
+    public enum Padding {
+        LAST, NULL
+    }
+
+    private InLists() {
+    }
+
+    /**
+     * Binds the values as a list of parameters whose length is rounded up to a power of two, padded with the last
+     * value.
+     */
+    public static void bind(final SQLStatement<?> q, final String name, final Collection<?> values) {
+        bind(q, name, values, Padding.LAST);
+    }
+
+    /**
+     * Binds the values as a list of parameters whose length is rounded up to the next of the given ascending sizes,
+     * or to a power of two if there are none.
+     */
+    public static void bind(final SQLStatement<?> q,
+                            final String name,
+                            final Collection<?> values,
+                            final Padding padding,
+                            final int... sizes) {
+        bindChecked(q, name, values, padding, checkSizes(sizes));
+    }
+
+    /**
+     * Binds the values like {@link #bind(SQLStatement, String, Collection, Padding, int...)}, with sizes which were
+     * {@link #checkSizes(int[]) checked} already.
+     */
+    static void bindChecked(final SQLStatement<?> q,
+                            final String name,
+                            final Collection<?> values,
+                            final Padding padding,
+                            final int[] sizes) {
+        final int size = bucketOf(values.size(), sizes);
+        final List<String> names = new ArrayList<>(size);
+        final Iterator<?> it = values.iterator();
+        Object value = null;
+        for (int i = 0; i < size; i++) {
+            final String bindName = "__" + name + "_" + i;
+            names.add(":" + bindName);
+            if (it.hasNext()) {
+                value = it.next();
+            }
+            else if (padding == Padding.NULL) {
+                value = null;
+            }
+            q.bind(bindName, value);
+        }
+        q.define(name, names);
+    }
+
+    /**
+     * The values of a collection or an array, for bind methods which take either.
+     */
+    static Collection<?> values(final Object arg) {
+        if (arg == null) {
+            throw new IllegalArgumentException("IN list must not be null");
+        }
+        if (arg instanceof Collection) {
+            return (Collection<?>) arg;
+        }
+        if (arg instanceof Object[]) {
+            return Arrays.asList((Object[]) arg);
+        }
+        if (arg.getClass().isArray()) {
+            final List<Object> values = new ArrayList<>(Array.getLength(arg));
+            for (int i = 0; i < Array.getLength(arg); i++) {
+                values.add(Array.get(arg, i));
+            }
+            return values;
+        }
+        throw new IllegalArgumentException("IN list must be a collection or an array, not " + arg.getClass());
+    }
+
+    /**
+     * Returns the sizes, once they are known to be positive and ascending.
+     */
+    static int[] checkSizes(final int[] sizes) {
+        int previous = 0;
+        for (final int bucket : sizes) {
+            if (bucket <= previous) {
+                throw new IllegalArgumentException("IN list sizes must be positive and ascending: "
+                                                   + Arrays.toString(sizes));
+            }
+            previous = bucket;
+        }
+        return sizes;
+    }
+
+    /**
+     * The number of parameters for a list of the given size.
+     */
+    static int bucket(final int size, final int[] sizes) {
+        return bucketOf(size, checkSizes(sizes));
+    }
+
+    private static int bucketOf(final int size, final int[] sizes) {
+        if (sizes.length == 0) {
+            final int rounded = size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+            // past 2^30 there is no larger power of two
+            return rounded < size ? size : rounded;
+        }
+        for (final int bucket : sizes) {
+            if (size <= bucket) {
+                return bucket;
+            }
+        }
+        final int largest = sizes[sizes.length - 1];
+        return (size + largest - 1) / largest * largest;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Group files held in memory. Their URLs carry a handler of their own, which serves the text of the group files, so
+ * URLs resolved against them, such as those of imported group files, can be opened like any other. Each source has
+ * a host of its own in its URLs, so groups of different sources are cached apart.
+ */
+final class InMemoryTemplateSource implements TemplateSource {
+
+    private static final String PROTOCOL = "jdbi-st4-memory";
+    private static final AtomicLong SOURCES = new AtomicLong();
+
+    private final Map<String, String> groups;
+    private final String host = Long.toString(SOURCES.incrementAndGet());
+    private final URLStreamHandler handler = new Handler();
+
+    InMemoryTemplateSource(final Map<String, String> groups) {
+        final Map<String, String> copy = new HashMap<>();
+        groups.forEach((path, text) -> copy.put(path.startsWith("/") ? path.substring(1) : path, text));
+        this.groups = Collections.unmodifiableMap(copy);
+    }
+
+    @Override
+    public URL find(final String path) {
+        final String relative = path.startsWith("/") ? path.substring(1) : path;
+        if (!groups.containsKey(relative)) {
+            return null;
+        }
+        try {
+            return new URL(PROTOCOL, host, -1, "/" + relative, handler);
+        }
+        catch (final MalformedURLException e) {
+            throw new IllegalArgumentException("not a group file path: " + path, e);
+        }
+    }
+
+    @Override
+    public CharBuffer read(final URL url) {
+        final String text = text(url);
+        return text == null ? null : CharBuffer.wrap(text);
+    }
+
+    @Override
+    public Collection<String> paths() {
+        return groups.keySet();
+    }
+
+    private String text(final URL url) {
+        if (!PROTOCOL.equals(url.getProtocol()) || !host.equals(url.getHost()) || !url.getPath().startsWith("/")) {
+            return null;
+        }
+        return groups.get(url.getPath().substring(1));
+    }
+
+    @Override
+    public String toString() {
+        return "InMemoryTemplateSource{" + PROTOCOL + "://" + host + ", groups=" + groups.size() + '}';
+    }
+
+    private final class Handler extends URLStreamHandler {
+        @Override
+        protected URLConnection openConnection(final URL u) {
+            return new URLConnection(u) {
+                @Override
+                public void connect() {
+                    connected = true;
+                }
+
+                @Override
+                public InputStream getInputStream() throws FileNotFoundException {
+                    final String text = text(u);
+                    if (text == null) {
+                        throw new FileNotFoundException(u.toString());
+                    }
+                    return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What happened while locating one statement. Steps which were skipped, such as rendering for a template without
+ * expressions, take no time.
+ */
+public final class LocateEvent {
+
+    /**
+     * How the statement was answered.
+     */
+    public enum Outcome {
+        /**
+         * A sql literal without template expressions, returned as is.
+         */
+        VERBATIM,
+        /**
+         * The precomputed text of a template without expressions.
+         */
+        CONSTANT,
+        /**
+         * A statement found in the render cache.
+         */
+        CACHED,
+        /**
+         * A statement rendered by ST.
+         */
+        RENDERED
+    }
+
+    /**
+     * Whether the render cache was consulted, and with what result.
+     */
+    public enum RenderCacheResult {
+        NOT_USED, HIT, MISS
+    }
+
+    private final String name;
+
+    String group;
+    boolean literal;
+    Outcome outcome;
+    RenderCacheResult renderCache = RenderCacheResult.NOT_USED;
+    long groupLookupNanos;
+    long instanceNanos;
+    long attributeNanos;
+    long renderNanos;
+    int length;
+    String statement;
+
+    LocateEvent(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * The source of the template group the statement was located in, its URL for group files.
+     */
+    public String group() {
+        return group;
+    }
+
+    /**
+     * The name of the template, or the text of the sql literal.
+     */
+    public String template() {
+        return name;
+    }
+
+    /**
+     * True if there was no template by the name, so the name was used as a sql literal.
+     */
+    public boolean literal() {
+        return literal;
+    }
+
+    public Outcome outcome() {
+        return outcome;
+    }
+
+    public RenderCacheResult renderCache() {
+        return renderCache;
+    }
+
+    /**
+     * Time spent finding the template group and the template in it, including compiling sql literals.
+     */
+    public long groupLookupTime(final TimeUnit unit) {
+        return unit.convert(groupLookupNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Time spent creating the template instance.
+     */
+    public long instanceTime(final TimeUnit unit) {
+        return unit.convert(instanceNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Time spent adding the context attributes to the template instance.
+     */
+    public long attributeTime(final TimeUnit unit) {
+        return unit.convert(attributeNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Time spent rendering the template instance.
+     */
+    public long renderTime(final TimeUnit unit) {
+        return unit.convert(renderNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Total time spent locating the statement.
+     */
+    public long totalTime(final TimeUnit unit) {
+        return unit.convert(totalNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    long totalNanos() {
+        return groupLookupNanos + instanceNanos + attributeNanos + renderNanos;
+    }
+
+    /**
+     * Length of the located statement.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * The located statement, or null if it was written to a sink rather than returned.
+     */
+    public String statement() {
+        return statement;
+    }
+
+    @Override
+    public String toString() {
+        return "LocateEvent{"
+               + "group=" + group
+               + ", template=" + name
+               + ", outcome=" + outcome
+               + ", renderCache=" + renderCache
+               + ", totalNanos=" + totalNanos()
+               + ", length=" + length
+               + '}';
+    }
+}
@@ -0,0 +1,24 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+/**
+ * Told about every statement an {@link ST4StatementLocator} locates, with how long each step took, on the thread
+ * locating it. Set one with {@link ST4StatementLocator#withListener(LocateListener)}.
+ */
+@FunctionalInterface
+public interface LocateListener {
+
+    void located(LocateEvent event);
+}
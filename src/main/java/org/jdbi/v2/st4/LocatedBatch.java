@@ -0,0 +1,79 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The statements {@link ST4StatementLocator#locateBatch} located for the rows of a batch, one per distinct statement,
+ * in the order of the first row using each, with the rows which use it. Run one {@code PreparedBatch} per statement.
+ */
+public final class LocatedBatch {
+
+    private final List<Statement> statements;
+    private final int rowCount;
+
+    LocatedBatch(final List<Statement> statements, final int rowCount) {
+        this.statements = Collections.unmodifiableList(new ArrayList<>(statements));
+        this.rowCount = rowCount;
+    }
+
+    public List<Statement> statements() {
+        return statements;
+    }
+
+    /**
+     * Number of rows in the batch.
+     */
+    public int rowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public String toString() {
+        return "LocatedBatch{statements=" + statements.size() + ", rows=" + rowCount + '}';
+    }
+
+    public static final class Statement {
+        private final String sql;
+        private final List<Integer> rows = new ArrayList<>();
+        private final List<Integer> readOnlyRows = Collections.unmodifiableList(rows);
+
+        Statement(final String sql) {
+            this.sql = sql;
+        }
+
+        public String sql() {
+            return sql;
+        }
+
+        /**
+         * Indexes of the rows, in the list passed to {@code locateBatch}, which use this statement, in ascending order.
+         */
+        public List<Integer> rows() {
+            return readOnlyRows;
+        }
+
+        void add(final int row) {
+            rows.add(row);
+        }
+
+        @Override
+        public String toString() {
+            return "Statement{sql='" + sql + "', rows=" + rows + '}';
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how statements were located by an {@link ST4StatementLocator}. Locators derived from another one, such as
+ * the per type locators of {@link ST4StatementLocator#perType(ST4StatementLocator.UseSTGroupCache, ST4StatementLocator)},
+ * share its stats.
+ */
+public final class LocatorStats {
+
+    final LongAdder locates = new LongAdder();
+    final LongAdder constantTemplates = new LongAdder();
+    final LongAdder verbatimLiterals = new LongAdder();
+    final LongAdder renderedLiterals = new LongAdder();
+    final LongAdder renderedTemplates = new LongAdder();
+    final LongAdder generatedRenders = new LongAdder();
+    final LongAdder batchedRows = new LongAdder();
+
+    LocatorStats() {
+    }
+
+    /**
+     * Number of statements located.
+     */
+    public long locateCount() {
+        return locates.sum();
+    }
+
+    /**
+     * Number of statements answered with the precomputed text of a template which has no expressions.
+     */
+    public long constantTemplateCount() {
+        return constantTemplates.sum();
+    }
+
+    /**
+     * Number of sql literals returned as is, as they hold no template expressions.
+     */
+    public long verbatimLiteralCount() {
+        return verbatimLiterals.sum();
+    }
+
+    /**
+     * Number of sql literals rendered by ST.
+     */
+    public long renderedLiteralCount() {
+        return renderedLiterals.sum();
+    }
+
+    /**
+     * Number of named templates rendered by ST.
+     */
+    public long renderedTemplateCount() {
+        return renderedTemplates.sum();
+    }
+
+    /**
+     * Number of named templates rendered by renderers generated at build time rather than by ST. These are included
+     * in {@link #renderedTemplateCount()}.
+     */
+    public long generatedRenderCount() {
+        return generatedRenders.sum();
+    }
+
+    /**
+     * Number of batch rows which reused the statement located for an earlier row of the same batch, with the same
+     * values for the attributes the template reads, instead of being located themselves.
+     */
+    public long batchedRowCount() {
+        return batchedRows.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "LocatorStats{"
+               + "locates=" + locateCount()
+               + ", constantTemplates=" + constantTemplateCount()
+               + ", verbatimLiterals=" + verbatimLiteralCount()
+               + ", renderedLiterals=" + renderedLiteralCount()
+               + ", renderedTemplates=" + renderedTemplateCount()
+               + ", generatedRenders=" + generatedRenderCount()
+               + ", batchedRows=" + batchedRowCount()
+               + '}';
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What {@link ST4StatementLocator#preload(java.util.concurrent.Executor, boolean, Class[])} did, per template group.
+ */
+public final class PreloadReport {
+
+    private final List<GroupReport> groups;
+    private final long elapsedNanos;
+
+    PreloadReport(final List<GroupReport> groups, final long elapsedNanos) {
+        this.groups = Collections.unmodifiableList(new ArrayList<>(groups));
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public List<GroupReport> groups() {
+        return groups;
+    }
+
+    /**
+     * Wall clock time of the whole preload.
+     */
+    public long elapsed(final TimeUnit unit) {
+        return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public boolean hasErrors() {
+        for (final GroupReport group : groups) {
+            if (!group.errors().isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * All errors reported while loading, compiling, and rendering, prefixed with the group they came from.
+     */
+    public List<String> errors() {
+        final List<String> errors = new ArrayList<>();
+        for (final GroupReport group : groups) {
+            for (final String error : group.errors()) {
+                errors.add(group.source() + ": " + error);
+            }
+        }
+        return errors;
+    }
+
+    @Override
+    public String toString() {
+        return "PreloadReport{groups=" + groups + ", elapsedMillis=" + elapsed(TimeUnit.MILLISECONDS) + '}';
+    }
+
+    public static final class GroupReport {
+        private final String source;
+        private final boolean alreadyLoaded;
+        private final int templateCount;
+        private final long loadNanos;
+        private final long renderNanos;
+        private final List<String> errors;
+
+        GroupReport(final String source,
+                    final boolean alreadyLoaded,
+                    final int templateCount,
+                    final long loadNanos,
+                    final long renderNanos,
+                    final List<String> errors) {
+            this.source = source;
+            this.alreadyLoaded = alreadyLoaded;
+            this.templateCount = templateCount;
+            this.loadNanos = loadNanos;
+            this.renderNanos = renderNanos;
+            this.errors = Collections.unmodifiableList(new ArrayList<>(errors));
+        }
+
+        /**
+         * The sql object type or path the group was loaded for, and where it was found.
+         */
+        public String source() {
+            return source;
+        }
+
+        /**
+         * True if the group was already in the cache, in which case errors from loading it were reported earlier,
+         * to its error listener, and are not part of this report.
+         */
+        public boolean alreadyLoaded() {
+            return alreadyLoaded;
+        }
+
+        /**
+         * Number of templates compiled, including those from imported groups.
+         */
+        public int templateCount() {
+            return templateCount;
+        }
+
+        /**
+         * Time taken to find, parse and compile the group and prepare its templates.
+         */
+        public long loadTime(final TimeUnit unit) {
+            return unit.convert(loadNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Time taken to dry render the templates, zero if they were not rendered.
+         */
+        public long renderTime(final TimeUnit unit) {
+            return unit.convert(renderNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public List<String> errors() {
+            return errors;
+        }
+
+        @Override
+        public String toString() {
+            return "GroupReport{"
+                   + "source='" + source + '\''
+                   + ", alreadyLoaded=" + alreadyLoaded
+                   + ", templates=" + templateCount
+                   + ", loadMicros=" + loadTime(TimeUnit.MICROSECONDS)
+                   + ", renderMicros=" + renderTime(TimeUnit.MICROSECONDS)
+                   + ", errors=" + errors
+                   + '}';
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.skife.jdbi.v2.StatementContext;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.STGroupFile;
+import org.stringtemplate.v4.compiler.CompiledST;
+
+import java.net.URL;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Wraps a template group, remembering per template what {@link PreparedTemplate} works out, so it is only done
+ * once per template rather than once per statement.
+ */
+final class PreparedGroup {
+
+    /**
+     * How many distinct groups handed out by a group provider function we keep prepared.
+     */
+    private static final int MAX_PROVIDED_GROUPS = 64;
+
+    /**
+     * Total length of the names, mostly sql literals, we remember a frozen group has no template for.
+     */
+    static final long MAX_MISSING_NAME_LENGTH = 1 << 18;
+
+    private static final AtomicLong GENERATIONS = new AtomicLong();
+
+    private final long generation = GENERATIONS.incrementAndGet();
+    private final STGroup group;
+    private final String source;
+    private final GeneratedRenderers generated;
+    private final ConcurrentMap<String, PreparedTemplate> templates = new ConcurrentHashMap<>();
+    private final BoundedCache<String, Boolean> missing;
+
+    PreparedGroup(final STGroup group) {
+        this(group, null);
+    }
+
+    /**
+     * Wraps a group whose templates may be rendered by the given generated renderers, if not null.
+     */
+    PreparedGroup(final STGroup group, final GeneratedRenderers generated) {
+        this(group,
+             group instanceof STGroupFile && ((STGroupFile) group).url != null
+             ? ((STGroupFile) group).url.toString()
+             : group.getName(),
+             generated);
+    }
+
+    private PreparedGroup(final STGroup group, final String source, final GeneratedRenderers generated) {
+        this.group = group;
+        this.source = source;
+        this.generated = generated;
+        // only a group which cannot change can remember what it does not have
+        this.missing = group instanceof SnapshotGroup
+                       ? new BoundedCache<>(MAX_MISSING_NAME_LENGTH, (name, _missing) -> name.length())
+                       : null;
+    }
+
+    /**
+     * Loads and prepares the group file at the URL, using the renderers generated for it if there are any. The
+     * resource is the classpath path of the group file, or null if it was not found on the classpath. The source, if
+     * there is one, reads the group files it holds.
+     */
+    static PreparedGroup load(final URL url,
+                              final String resource,
+                              final STGroupCache cache,
+                              final ClassLoader scope,
+                              final TemplateSource source) {
+        final STGroup group = ST4StatementLocator.urlToSTGroup(url, cache, scope, source);
+        return new PreparedGroup(group, GeneratedGroups.find(resource, scope, group)).freeze();
+    }
+
+    /**
+     * Prepares every template of an immutable {@link SnapshotGroup snapshot} of the group, in which templates are
+     * looked up without taking locks. Only for groups which are fully loaded and do not change any more, such as
+     * those loaded from group files.
+     */
+    PreparedGroup freeze() {
+        return new PreparedGroup(SnapshotGroup.of(group), source, generated).prepareAll();
+    }
+
+    /**
+     * Prepares every template in the group, and in the groups it imports, up front.
+     */
+    PreparedGroup prepareAll() {
+        for (final String name : templateNames(group)) {
+            lookup(name);
+        }
+        return this;
+    }
+
+    /**
+     * Names of the templates defined in a group and the groups it imports, without the leading '/'.
+     */
+    static Set<String> templateNames(final STGroup group) {
+        final Set<String> names = new LinkedHashSet<>();
+        collectTemplateNames(group, names, Collections.newSetFromMap(new IdentityHashMap<>()));
+        return names;
+    }
+
+    private static void collectTemplateNames(final STGroup group, final Set<String> names, final Set<STGroup> seen) {
+        if (!seen.add(group)) {
+            return;
+        }
+        group.load();
+        for (final String name : group.getTemplateNames()) {
+            names.add(name.startsWith("/") ? name.substring(1) : name);
+        }
+        final List<STGroup> imports = group.getImportedGroups();
+        if (imports != null) {
+            for (final STGroup imported : imports) {
+                collectTemplateNames(imported, names, seen);
+            }
+        }
+    }
+
+    STGroup group() {
+        return group;
+    }
+
+    /**
+     * A number no other prepared group has, to tell groups apart in cache keys without keeping them, or their class
+     * loaders, alive.
+     */
+    long generation() {
+        return generation;
+    }
+
+    /**
+     * Where the group was loaded from, its URL for group files.
+     */
+    String source() {
+        return source;
+    }
+
+    /**
+     * Number of lookups answered from the names remembered as missing.
+     */
+    long missingHitCount() {
+        return missing == null ? 0 : missing.hitCount();
+    }
+
+    /**
+     * The templates prepared so far, all of them after {@link #prepareAll()}.
+     */
+    Collection<PreparedTemplate> templates() {
+        return Collections.unmodifiableCollection(templates.values());
+    }
+
+    /**
+     * Finds the named template in the group or its imports, or returns null if there is none. Frozen groups remember
+     * the names they have no template for, which are mostly sql literals, so asking again does not build and hash
+     * the qualified name, nor search the group, every time.
+     */
+    PreparedTemplate lookup(final String name) {
+        final PreparedTemplate prepared = templates.get(name);
+        if (prepared != null) {
+            return prepared;
+        }
+        if (name.isEmpty() || (missing != null && missing.get(name) != null)) {
+            return null;
+        }
+        final CompiledST impl = group.lookupTemplate(name.charAt(0) == '/' ? name : "/" + name);
+        if (impl == null) {
+            if (missing != null) {
+                missing.put(name, Boolean.TRUE);
+            }
+            return null;
+        }
+        return templates.computeIfAbsent(name, (n) -> {
+            final String generatedName = name.charAt(0) == '/' ? name.substring(1) : name;
+            if (generated != null && generated.templateNames().contains(generatedName)) {
+                return new PreparedTemplate(group, impl, generated, generatedName);
+            }
+            return new PreparedTemplate(group, impl);
+        });
+    }
+
+    /**
+     * Adapts a function which picks a group per statement, preparing each distinct group it returns once.
+     */
+    static Function<StatementContext, PreparedGroup> preparing(final Function<StatementContext, STGroup> provider) {
+        final BoundedCache<STGroup, PreparedGroup> prepared = BoundedCache.ofSize(MAX_PROVIDED_GROUPS);
+        return (ctx) -> prepared.computeIfAbsent(provider.apply(ctx), PreparedGroup::new);
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.stringtemplate.v4.AutoIndentWriter;
+import org.stringtemplate.v4.NoIndentWriter;
+import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.STErrorListener;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.compiler.CompiledST;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A compiled template along with what we worked out about it ahead of rendering.
+ */
+final class PreparedTemplate {
+
+    private final STGroup group;
+    private final CompiledST impl;
+    private final Set<String> attributeNames;
+    private final String[] attributeNameArray;
+    private final String constant;
+    private final String unindentedConstant;
+    private final GeneratedRenderers generated;
+    private final String generatedName;
+
+    /**
+     * Length of the last statement rendered, to size the buffer for the next one.
+     */
+    private volatile int expectedLength;
+
+    PreparedTemplate(final STGroup group, final CompiledST impl) {
+        this(group, impl, null, null);
+    }
+
+    /**
+     * Prepares a template which the given generated renderers can render by the given name, if not null.
+     */
+    PreparedTemplate(final STGroup group,
+                     final CompiledST impl,
+                     final GeneratedRenderers generated,
+                     final String generatedName) {
+        this.group = group;
+        this.generated = generated;
+        this.generatedName = generatedName;
+        final Set<String> referenced = CompiledTemplates.referencedAttributes(group, impl);
+        if (referenced == null) {
+            this.impl = impl;
+            this.attributeNames = null;
+            this.attributeNameArray = null;
+        }
+        else {
+            this.impl = CompiledTemplates.withArguments(impl, referenced);
+            this.attributeNames = Collections.unmodifiableSet(referenced);
+            this.attributeNameArray = referenced.toArray(new String[referenced.size()]);
+        }
+        if (CompiledTemplates.isConstant(impl)) {
+            this.constant = render(newInstance(Collections.<String, Object>emptyMap()), true);
+            this.unindentedConstant = render(newInstance(Collections.<String, Object>emptyMap()), false);
+        }
+        else {
+            this.constant = null;
+            this.unindentedConstant = null;
+        }
+    }
+
+    /**
+     * The rendered template, if it renders the same regardless of attributes, otherwise null.
+     */
+    String constant() {
+        return constant;
+    }
+
+    /**
+     * The rendered template, as rendered with or without auto indentation, if it renders the same regardless of
+     * attributes, otherwise null.
+     */
+    String constant(final boolean autoIndent) {
+        return autoIndent ? constant : unindentedConstant;
+    }
+
+    /**
+     * Names of the attributes the template may read, or null if it may read any.
+     */
+    Set<String> attributeNames() {
+        return attributeNames;
+    }
+
+    /**
+     * Renders the template without any attributes, reporting problems to the listener, and discards the result.
+     */
+    void dryRender(final STErrorListener listener) throws IOException {
+        newInstance(Collections.<String, Object>emptyMap()).write(new AutoIndentWriter(new StringWriter()), listener);
+    }
+
+    /**
+     * Renders an instance of this template into a reused buffer, with ST's auto indenting writer, or with a writer
+     * which does not indent.
+     */
+    String render(final ST st, final boolean autoIndent) {
+        return render(st, autoIndent, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Renders an instance of this template into a reused buffer, throwing {@link StatementTooLongException} if it is
+     * longer than {@code maxLength}, without holding more than that in memory.
+     */
+    String render(final ST st, final boolean autoIndent, final int maxLength) {
+        final RenderBuffer buffer = RenderBuffer.acquire(expectedLength, maxLength);
+        try {
+            write(st, autoIndent, buffer);
+            final String sql = buffer.contents();
+            expectedLength = sql.length();
+            return sql;
+        }
+        catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        finally {
+            buffer.release();
+        }
+    }
+
+    /**
+     * Renders an instance of this template into the writer, with ST's auto indenting writer, or with a writer which
+     * does not indent. Throws {@link StatementTooLongException} if the statement went past the writer's limit.
+     */
+    static void write(final ST st, final boolean autoIndent, final BoundedWriter out) throws IOException {
+        out.listener(st.impl.nativeGroup.errMgr.listener);
+        st.write(autoIndent ? new AutoIndentWriter(out) : new NoIndentWriter(out), out);
+        if (out.overflowed()) {
+            throw new StatementTooLongException(out.maxLength());
+        }
+    }
+
+    /**
+     * True if the template has a generated renderer.
+     */
+    boolean generated() {
+        return generated != null;
+    }
+
+    /**
+     * Renders the template with its generated renderer, or returns null if an attribute value is one the renderer
+     * does not handle, or the renderer is gone with its class loader, and the template must be rendered by ST. Throws {@link StatementTooLongException} if the
+     * statement is longer than {@code maxLength}.
+     */
+    String renderGenerated(final Map<String, Object> attributes, final boolean autoIndent, final int maxLength) {
+        final RenderBuffer buffer = RenderBuffer.acquire(expectedLength, maxLength);
+        try {
+            if (!generated.render(generatedName, attributes, autoIndent, buffer.builder())) {
+                return null;
+            }
+            final String sql = buffer.contents();
+            expectedLength = sql.length();
+            return sql;
+        }
+        catch (final RendererSupport.Unsupported e) {
+            return null;
+        }
+        finally {
+            buffer.release();
+        }
+    }
+
+    /**
+     * Creates an instance of the template, with those of the attributes added which it may read.
+     */
+    ST newInstance(final Map<String, Object> attributes) {
+        final ST st = createInstance();
+        addAttributes(st, attributes);
+        return st;
+    }
+
+    /**
+     * Creates an instance of the template without any attributes.
+     */
+    ST createInstance() {
+        if (attributeNames == null) {
+            // we could not work out which attributes the template reads, so we add all context values. ST4 explodes
+            // if you add a value that lacks a formal argument, iff hasFormalArgs is true. If it is false, it
+            // declares the argument on the fly, which must happen on a private copy as the template is shared.
+            final CompiledST copy = CompiledTemplates.copyOf(impl);
+            copy.hasFormalArgs = false;
+            return group.createStringTemplate(copy);
+        }
+        return group.createStringTemplate(impl);
+    }
+
+    /**
+     * Adds those of the attributes to an instance created by {@link #createInstance()} which the template may read.
+     */
+    void addAttributes(final ST st, final Map<String, Object> attributes) {
+        if (attributeNames == null) {
+            for (final Map.Entry<String, Object> attr : attributes.entrySet()) {
+                st.add(attr.getKey(), attr.getValue());
+            }
+        }
+        else if (attributes.size() < attributeNameArray.length) {
+            for (final Map.Entry<String, Object> attr : attributes.entrySet()) {
+                if (attributeNames.contains(attr.getKey())) {
+                    st.add(attr.getKey(), attr.getValue());
+                }
+            }
+        }
+        else {
+            for (final String name : attributeNameArray) {
+                final Object value = attributes.get(name);
+                if (value != null || attributes.containsKey(name)) {
+                    st.add(name, value);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.stringtemplate.v4.STErrorListener;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.STGroupFile;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A template group which is loaded again in the background when its file, or the file of a group it imports,
+ * changes. A new group is only swapped in if it compiles; otherwise the listener is told and the old group stays.
+ */
+public final class ReloadableGroup implements AutoCloseable {
+
+    /**
+     * Interval of the checks of the groups of {@link ST4StatementLocator.UseSTGroupCache#RELOAD_ON_CHANGE}.
+     */
+    static final long DEFAULT_CHECK_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    private final URL url;
+    private final Listener listener;
+    private final ScheduledExecutorService executor;
+    private final boolean ownsExecutor;
+    private final LongAdder reloads = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    private volatile Loaded current;
+    private volatile List<String> lastErrors = Collections.emptyList();
+
+    /**
+     * The files of the last group which failed to compile, so it is not compiled, and reported, again until they
+     * change. Only used by the reload thread.
+     */
+    private Loaded rejected;
+    private Check checks;
+
+    /**
+     * Loads the group, which must compile if {@code strict}, otherwise what ST reported is kept as the
+     * {@link #lastErrors() last errors}, and the group is used as it is until its files change.
+     */
+    private ReloadableGroup(final URL url,
+                            final Listener listener,
+                            final ScheduledExecutorService executor,
+                            final boolean ownsExecutor,
+                            final boolean strict) {
+        this.url = url;
+        this.listener = listener;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        final CollectingErrorListener errors = new CollectingErrorListener();
+        final Loaded loaded = load(url, errors);
+        final List<String> messages = errors.stop();
+        if (!messages.isEmpty()) {
+            if (strict) {
+                throw new IllegalStateException("template group " + url + " does not compile: " + messages);
+            }
+            this.lastErrors = Collections.unmodifiableList(messages);
+        }
+        this.current = loaded;
+    }
+
+    /**
+     * Told what became of reloads. Called on the reload thread; what it throws is ignored.
+     */
+    public interface Listener {
+        default void reloaded(URL url) {
+        }
+
+        default void failed(URL url, List<String> errors) {
+        }
+    }
+
+    /**
+     * Loads the group, and checks its files for changes every {@code interval}, on a daemon thread of its own.
+     *
+     * @throws IllegalStateException if the group does not compile
+     */
+    public static ReloadableGroup start(final URL url,
+                                        final long interval,
+                                        final TimeUnit unit,
+                                        final Listener listener) {
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor((r) -> {
+            final Thread thread = new Thread(r, "jdbi-st4 reload " + url);
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            return start(url, executor, true, interval, unit, listener);
+        }
+        catch (final RuntimeException e) {
+            executor.shutdown();
+            throw e;
+        }
+    }
+
+    /**
+     * Loads the group, and checks its files for changes every {@code interval}, on the given executor.
+     *
+     * @throws IllegalStateException if the group does not compile
+     */
+    public static ReloadableGroup start(final URL url,
+                                        final ScheduledExecutorService executor,
+                                        final long interval,
+                                        final TimeUnit unit,
+                                        final Listener listener) {
+        return start(url, executor, false, interval, unit, listener);
+    }
+
+    private static ReloadableGroup start(final URL url,
+                                         final ScheduledExecutorService executor,
+                                         final boolean ownsExecutor,
+                                         final long interval,
+                                         final TimeUnit unit,
+                                         final Listener listener) {
+        final ReloadableGroup group = new ReloadableGroup(url, listener, executor, ownsExecutor, true);
+        group.checks = new Check(group, interval, unit);
+        return group;
+    }
+
+    /**
+     * Loads the group, even if it does not compile, and checks its files for changes every {@code interval}, on a
+     * daemon thread shared by all such groups, for {@link ST4StatementLocator.UseSTGroupCache#RELOAD_ON_CHANGE}.
+     * Checks stop once the group is no longer used.
+     */
+    static ReloadableGroup watch(final URL url, final long interval, final TimeUnit unit) {
+        final ReloadableGroup group = new ReloadableGroup(url, new Listener() {}, Watcher.EXECUTOR, false, false);
+        group.checks = new Check(group, interval, unit);
+        return group;
+    }
+
+    /**
+     * Checks the files for changes now, on the reload executor, rather than waiting for the next check. Completes
+     * with true if a new group was published.
+     */
+    public CompletableFuture<Boolean> reload() {
+        return CompletableFuture.supplyAsync(this::check, executor);
+    }
+
+    /**
+     * The group statements are located in now.
+     */
+    PreparedGroup current() {
+        return current.group();
+    }
+
+    private synchronized boolean check() {
+        final Loaded loaded;
+        final List<String> messages;
+        try {
+            if (!current.changed() || (rejected != null && !rejected.changed())) {
+                return false;
+            }
+            final CollectingErrorListener errors = new CollectingErrorListener();
+            loaded = load(url, errors);
+            messages = errors.stop();
+        }
+        catch (final RuntimeException e) {
+            // such as a file which disappeared, tried again at the next check
+            failed(Collections.singletonList(e.toString()));
+            return false;
+        }
+        if (!messages.isEmpty()) {
+            rejected = loaded;
+            failed(messages);
+            return false;
+        }
+        rejected = null;
+        current = loaded;
+        lastErrors = Collections.emptyList();
+        reloads.increment();
+        tell(() -> listener.reloaded(url));
+        return true;
+    }
+
+    private void failed(final List<String> messages) {
+        final List<String> errors = Collections.unmodifiableList(messages);
+        lastErrors = errors;
+        failures.increment();
+        tell(() -> listener.failed(url, errors));
+    }
+
+    /**
+     * Calls the listener, ignoring what it throws, which would otherwise cancel the periodic checks.
+     */
+    private static void tell(final Runnable call) {
+        try {
+            call.run();
+        }
+        catch (final RuntimeException e) {
+            // nothing to be done about it here
+        }
+    }
+
+    /**
+     * Number of times a changed group was published.
+     */
+    public long reloadCount() {
+        return reloads.sum();
+    }
+
+    /**
+     * Number of times a changed group failed to load or compile, and the previous one was kept.
+     */
+    public long failureCount() {
+        return failures.sum();
+    }
+
+    /**
+     * What ST reported about the last group which failed to load or compile, empty once a group was published since.
+     */
+    public List<String> lastErrors() {
+        return lastErrors;
+    }
+
+    /**
+     * Stops checking for changes, and stops the reload thread if it is our own. The current group stays in use.
+     */
+    @Override
+    public void close() {
+        checks.cancel();
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ReloadableGroup{url=" + url + ", reloads=" + reloadCount() + ", failures=" + failureCount() + '}';
+    }
+
+    /**
+     * Loads and compiles the group at the URL, reporting problems to the listener, and remembers the files it was
+     * loaded from.
+     */
+    private static Loaded load(final URL url, final STErrorListener listener) {
+        final STGroup stg = ST4StatementLocator.urlToSTGroup(url);
+        stg.setListener(listener);
+        final PreparedGroup group = new PreparedGroup(stg).freeze();
+        final List<Stamp> stamps = new ArrayList<>();
+        collectStamps(stg, url, stamps, Collections.newSetFromMap(new IdentityHashMap<>()));
+        return new Loaded(group, stamps);
+    }
+
+    private static void collectStamps(final STGroup group,
+                                      final URL url,
+                                      final List<Stamp> stamps,
+                                      final Set<STGroup> seen) {
+        if (!seen.add(group)) {
+            return;
+        }
+        final File file = toFile(url);
+        if (file != null) {
+            stamps.add(new Stamp(file));
+        }
+        final List<STGroup> imports = group.getImportedGroups();
+        if (imports != null) {
+            for (final STGroup imported : imports) {
+                if (imported instanceof STGroupFile) {
+                    collectStamps(imported, ((STGroupFile) imported).url, stamps, seen);
+                }
+            }
+        }
+    }
+
+    private static File toFile(final URL url) {
+        if (url == null || !"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return new File(url.toURI());
+        }
+        catch (final URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The periodic check of a group, which holds the group weakly, so the executor does not keep a group no one uses,
+     * and cancels itself once the group is gone.
+     */
+    private static final class Check implements Runnable {
+        private final WeakReference<ReloadableGroup> group;
+        private final ScheduledFuture<?> future;
+
+        private Check(final ReloadableGroup group, final long interval, final TimeUnit unit) {
+            this.group = new WeakReference<>(group);
+            this.future = group.executor.scheduleWithFixedDelay(this, interval, interval, unit);
+        }
+
+        @Override
+        public void run() {
+            final ReloadableGroup g = group.get();
+            if (g == null) {
+                cancel();
+            }
+            else {
+                g.check();
+            }
+        }
+
+        private void cancel() {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * The thread which checks the groups of {@link #watch(URL, long, TimeUnit)}, started with the first of them.
+     */
+    private static final class Watcher {
+        private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor((r) -> {
+            final Thread thread = new Thread(r, "jdbi-st4 reload on change");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * A loaded group, and the modification times and sizes of the files it was loaded from.
+     */
+    private static final class Loaded {
+        private final PreparedGroup group;
+        private final List<Stamp> stamps;
+
+        private Loaded(final PreparedGroup group, final List<Stamp> stamps) {
+            this.group = group;
+            this.stamps = stamps;
+        }
+
+        private PreparedGroup group() {
+            return group;
+        }
+
+        /**
+         * True if one of the files changed since the group was loaded.
+         */
+        private boolean changed() {
+            for (final Stamp stamp : stamps) {
+                if (stamp.changed()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Stamp {
+        private final File file;
+        private final long lastModified;
+        private final long length;
+
+        private Stamp(final File file) {
+            this.file = file;
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+        }
+
+        private boolean changed() {
+            return file.lastModified() != lastModified || file.length() != length;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.stringtemplate.v4.misc.ErrorManager;
+
+import java.io.Writer;
+
+/**
+ * A writer into a per thread string builder, reused from one statement to the next so rendering does not allocate a
+ * new buffer, and grow it, for every statement. Buffers which grew past {@link #MAX_RETAINED_CAPACITY} are dropped
+ * after use, so one huge statement does not pin memory for the life of the thread. Nothing past the optional limit is
+ * kept, so a runaway statement does not grow the buffer without bound.
+ */
+final class RenderBuffer extends BoundedWriter {
+
+    static final int MAX_RETAINED_CAPACITY = 1 << 16;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private static final ThreadLocal<RenderBuffer> BUFFERS = ThreadLocal.withInitial(RenderBuffer::new);
+
+    private StringBuilder buffer = new StringBuilder(INITIAL_CAPACITY);
+    private boolean inUse;
+
+    private RenderBuffer() {
+    }
+
+    /**
+     * Returns this thread's buffer, empty and with room for at least the expected length. If the thread is already
+     * rendering into it, such as when a model adaptor locates a statement of its own, returns a new one.
+     */
+    static RenderBuffer acquire(final int expectedLength) {
+        return acquire(expectedLength, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns this thread's buffer, which keeps no more than {@code maxLength} characters; writing more throws
+     * {@link StatementTooLongException.Abort}.
+     */
+    static RenderBuffer acquire(final int expectedLength, final int maxLength) {
+        RenderBuffer buffer = BUFFERS.get();
+        if (buffer.inUse) {
+            buffer = new RenderBuffer();
+        }
+        buffer.inUse = true;
+        buffer.limit(maxLength);
+        buffer.buffer.setLength(0);
+        buffer.buffer.ensureCapacity(Math.min(expectedLength, maxLength));
+        return buffer;
+    }
+
+    /**
+     * The builder behind this writer, for generated renderers, which write to it directly.
+     */
+    StringBuilder builder() {
+        return buffer;
+    }
+
+    String contents() {
+        // generated renderers write to the builder directly, past the limit
+        if (overflowed() || buffer.length() > maxLength()) {
+            throw new StatementTooLongException(maxLength());
+        }
+        return buffer.toString();
+    }
+
+    void release() {
+        if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+            buffer = new StringBuilder(INITIAL_CAPACITY);
+        }
+        listener(ErrorManager.DEFAULT_ERROR_LISTENER);
+        inUse = false;
+    }
+
+    /**
+     * Throws {@link StatementTooLongException.Abort} unless the characters fit within the limit.
+     */
+    private void fit(final int length) {
+        checkOverflow();
+        if (buffer.length() + (long) length > maxLength()) {
+            overflow();
+        }
+    }
+
+    @Override
+    public void write(final int c) {
+        fit(1);
+        buffer.append((char) c);
+    }
+
+    @Override
+    public void write(final char[] chars, final int offset, final int length) {
+        fit(length);
+        buffer.append(chars, offset, length);
+    }
+
+    @Override
+    public void write(final String str) {
+        fit(str.length());
+        buffer.append(str);
+    }
+
+    @Override
+    public void write(final String str, final int offset, final int length) {
+        fit(length);
+        buffer.append(str, offset, offset + length);
+    }
+
+    @Override
+    public Writer append(final CharSequence csq) {
+        final CharSequence s = csq == null ? "null" : csq;
+        fit(s.length());
+        buffer.append(s);
+        return this;
+    }
+
+    @Override
+    public Writer append(final char c) {
+        write(c);
+        return this;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers rendered SQL keyed by template group, statement name, whether the locator indents, and the values of the
+ * context attributes, so that rendering the same statement with the same defines again costs a hash lookup instead of
+ * a template evaluation. Only attributes which the template may read take part in the key.
+ * <p>
+ * Only attribute values which are immutable and have value based equality take part: strings, boxed primitives,
+ * {@link BigInteger}, {@link BigDecimal}, enums, and arrays or lists of those. If any attribute on the statement
+ * context holds a value of another type the statement is rendered normally and not cached, as its output may depend
+ * on state we cannot see in the key.
+ * <p>
+ * Groups are told apart by a {@link PreparedGroup#generation() generation number}, which keys do not keep the groups
+ * alive with, so a locator which creates a new group for every statement will never hit.
+ * Instances are thread safe and may be shared between locators.
+ */
+public final class RenderedStatementCache {
+
+    private final BoundedCache<Key, String> cache;
+    private final LongAdder uncacheable = new LongAdder();
+
+    private RenderedStatementCache(final BoundedCache<Key, String> cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * A cache holding at most {@code maximumEntries} rendered statements.
+     */
+    public static RenderedStatementCache maximumSize(final long maximumEntries) {
+        return new RenderedStatementCache(BoundedCache.ofSize(maximumEntries));
+    }
+
+    /**
+     * A cache holding rendered statements up to a total of {@code maximumChars} characters of SQL.
+     */
+    public static RenderedStatementCache maximumWeight(final long maximumChars) {
+        return new RenderedStatementCache(new BoundedCache<>(maximumChars, (k, sql) -> sql.length()));
+    }
+
+    public long hitCount() {
+        return cache.hitCount();
+    }
+
+    public long missCount() {
+        return cache.missCount();
+    }
+
+    /**
+     * Number of statements which were not looked up at all because an attribute value could not be fingerprinted.
+     */
+    public long uncacheableCount() {
+        return uncacheable.sum();
+    }
+
+    public long evictionCount() {
+        return cache.evictionCount();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Builds a lookup key over the live attribute map, without copying it. Only the attributes in {@code names} are
+     * considered, or all of them if it is null. Returns null if the attributes cannot be part of a cache key.
+     */
+    Key keyFor(final long group,
+               final String name,
+               final boolean autoIndent,
+               final Map<String, Object> attributes,
+               final Set<String> names) {
+        final Key key = key(group, name, autoIndent, attributes, names);
+        if (key == null) {
+            uncacheable.increment();
+        }
+        return key;
+    }
+
+    /**
+     * Builds a key like {@link #keyFor}, without counting attributes which cannot be part of one.
+     */
+    static Key key(final long group,
+                   final String name,
+                   final boolean autoIndent,
+                   final Map<String, Object> attributes,
+                   final Set<String> names) {
+        int hash = 0;
+        int count = 0;
+        for (final Map.Entry<String, Object> attr : attributes.entrySet()) {
+            if (names != null && !names.contains(attr.getKey())) {
+                continue;
+            }
+            final Object value = attr.getValue();
+            if (!isCacheable(value)) {
+                return null;
+            }
+            // order independent, like Map.hashCode, as attribute maps need not iterate in a stable order
+            hash += attr.getKey().hashCode() ^ valueHash(value);
+            count++;
+        }
+        hash = 31 * (31 * (31 * Long.hashCode(group) + name.hashCode()) + Boolean.hashCode(autoIndent)) + hash;
+        return new Key(group, name, autoIndent, attributes, names, count, hash);
+    }
+
+    String get(final Key key) {
+        return cache.get(key);
+    }
+
+    void put(final Key key, final String sql) {
+        cache.putIfAbsent(key.snapshot(), sql);
+    }
+
+    private static boolean isCacheable(final Object value) {
+        if (value == null
+            || value instanceof String
+            || value instanceof Integer
+            || value instanceof Long
+            || value instanceof Short
+            || value instanceof Byte
+            || value instanceof Double
+            || value instanceof Float
+            || value instanceof Boolean
+            || value instanceof Character
+            || value instanceof BigInteger
+            || value instanceof BigDecimal
+            || value instanceof Enum) {
+            return true;
+        }
+        if (value instanceof Object[]) {
+            for (final Object element : (Object[]) value) {
+                if (!isCacheable(element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (value instanceof List) {
+            for (final Object element : (List<?>) value) {
+                if (!isCacheable(element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static int valueHash(final Object value) {
+        if (value instanceof Object[]) {
+            return sequenceHash(Arrays.asList((Object[]) value));
+        }
+        if (value instanceof List) {
+            return sequenceHash((List<?>) value);
+        }
+        return value == null ? 0 : value.hashCode();
+    }
+
+    private static int sequenceHash(final List<?> values) {
+        int hash = 1;
+        for (final Object element : values) {
+            hash = 31 * hash + valueHash(element);
+        }
+        return hash;
+    }
+
+    /**
+     * Arrays and lists render identically, so they compare equal when their elements do. Everything else must be
+     * equal and of the same class.
+     */
+    private static boolean valueEquals(final Object a, final Object b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        final List<?> sa = asSequence(a);
+        final List<?> sb = asSequence(b);
+        if (sa != null || sb != null) {
+            if (sa == null || sb == null || sa.size() != sb.size()) {
+                return false;
+            }
+            for (int i = 0; i < sa.size(); i++) {
+                if (!valueEquals(sa.get(i), sb.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return a.getClass() == b.getClass() && a.equals(b);
+    }
+
+    private static List<?> asSequence(final Object value) {
+        if (value instanceof Object[]) {
+            return Arrays.asList((Object[]) value);
+        }
+        if (value instanceof List) {
+            return (List<?>) value;
+        }
+        return null;
+    }
+
+    private static Object copyOf(final Object value) {
+        final List<?> sequence = asSequence(value);
+        if (sequence == null) {
+            return value;
+        }
+        final List<Object> copy = new ArrayList<>(sequence.size());
+        for (final Object element : sequence) {
+            copy.add(copyOf(element));
+        }
+        return Collections.unmodifiableList(copy);
+    }
+
+    static final class Key {
+        private final long group;
+        private final String name;
+        private final boolean autoIndent;
+        private final Map<String, Object> attributes;
+        private final Set<String> names;
+        private final int count;
+        private final int hash;
+
+        private Key(final long group,
+                    final String name,
+                    final boolean autoIndent,
+                    final Map<String, Object> attributes,
+                    final Set<String> names,
+                    final int count,
+                    final int hash) {
+            this.group = group;
+            this.name = name;
+            this.autoIndent = autoIndent;
+            this.attributes = attributes;
+            this.names = names;
+            this.count = count;
+            this.hash = hash;
+        }
+
+        /**
+         * Lookup keys point at the live, mutable attribute map. Stored keys need their own copy, of just the
+         * attributes which take part.
+         */
+        Key snapshot() {
+            final Map<String, Object> copy = new HashMap<>(count * 2);
+            for (final Map.Entry<String, Object> attr : attributes.entrySet()) {
+                if (isRelevant(attr.getKey())) {
+                    copy.put(attr.getKey(), copyOf(attr.getValue()));
+                }
+            }
+            return new Key(group, name, autoIndent, copy, null, count, hash);
+        }
+
+        private boolean isRelevant(final String attribute) {
+            return names == null || names.contains(attribute);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            if (hash != other.hash
+                || count != other.count
+                || group != other.group
+                || autoIndent != other.autoIndent
+                || !name.equals(other.name)) {
+                return false;
+            }
+            for (final Map.Entry<String, Object> attr : attributes.entrySet()) {
+                if (!isRelevant(attr.getKey())) {
+                    continue;
+                }
+                final Object otherValue = other.attributes.get(attr.getKey());
+                if (otherValue == null && !other.attributes.containsKey(attr.getKey())) {
+                    return false;
+                }
+                if (!other.isRelevant(attr.getKey()) || !valueEquals(attr.getValue(), otherValue)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,503 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.stringtemplate.v4.Interpreter;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.compiler.Bytecode;
+import org.stringtemplate.v4.compiler.CompiledST;
+import org.stringtemplate.v4.compiler.FormalArgument;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Translates compiled templates into Java source which renders them without ST. Only a subset of ST is translated:
+ * text, attributes, attributes with a separator, {@code if} / {@code elseif} / {@code else} on attributes with
+ * {@code !}, {@code &&} and {@code ||}, and calls without arguments to templates without arguments, including
+ * imported ones. Templates using anything else, such as anonymous templates, properties, functions, indented
+ * expressions or default argument values, are left to ST.
+ */
+final class RendererGenerator {
+
+    private static final String SUPPORT = RendererSupport.class.getName();
+    private static final int SEPARATOR = Interpreter.Option.SEPARATOR.ordinal();
+    private static final String PARAMETERS = "final java.util.Map<String, Object> a, final boolean ai, final StringBuilder out";
+
+    private final STGroup group;
+    private final Map<CompiledST, String> methodNames = new IdentityHashMap<>();
+    private final Map<CompiledST, String> methodBodies = new IdentityHashMap<>();
+    private final Set<CompiledST> translating = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final List<CompiledST> methods = new ArrayList<>();
+    private int nextMethod;
+
+    RendererGenerator(final STGroup group) {
+        this.group = group;
+    }
+
+    /**
+     * Java source of a {@link GeneratedRenderers} class for the group, or null if none of its templates can be
+     * translated.
+     */
+    String generate(final String className, final String checksum) {
+        final Map<String, String> entries = new LinkedHashMap<>();
+        for (final String name : PreparedGroup.templateNames(group)) {
+            final CompiledST impl = group.lookupTemplate("/" + name);
+            if (impl == null || impl.isAnonSubtemplate || impl.isRegion || impl.numberOfArgsWithDefaultValues > 0) {
+                continue;
+            }
+            final String method = method(impl);
+            if (method != null) {
+                entries.put(name, method);
+            }
+        }
+        if (entries.isEmpty()) {
+            return null;
+        }
+
+        final int dot = className.lastIndexOf('.');
+        final StringBuilder java = new StringBuilder();
+        if (dot > 0) {
+            java.append("package ").append(className, 0, dot).append(";\n\n");
+        }
+        java.append("// generated by ").append(SqlTemplateProcessor.class.getName()).append(", do not edit\n");
+        java.append("public final class ").append(className.substring(dot + 1))
+            .append(" implements ").append(GeneratedRenderers.class.getName()).append(" {\n\n");
+
+        java.append("    private static final java.util.Set<String> TEMPLATES = java.util.Collections.unmodifiableSet(\n");
+        java.append("        new java.util.HashSet<String>(java.util.Arrays.asList(");
+        String separator = "";
+        for (final String name : entries.keySet()) {
+            java.append(separator).append(literal(name));
+            separator = ", ";
+        }
+        java.append(")));\n\n");
+
+        java.append("    @Override\n");
+        java.append("    public String checksum() {\n");
+        java.append("        return ").append(literal(checksum)).append(";\n");
+        java.append("    }\n\n");
+
+        java.append("    @Override\n");
+        java.append("    public java.util.Set<String> templateNames() {\n");
+        java.append("        return TEMPLATES;\n");
+        java.append("    }\n\n");
+
+        java.append("    @Override\n");
+        java.append("    public boolean render(final String name, ").append(PARAMETERS).append(") {\n");
+        java.append("        switch (name) {\n");
+        for (final Map.Entry<String, String> entry : entries.entrySet()) {
+            java.append("            case ").append(literal(entry.getKey())).append(":\n");
+            java.append("                ").append(entry.getValue()).append("(a, ai, out);\n");
+            java.append("                return true;\n");
+        }
+        java.append("            default:\n");
+        java.append("                return false;\n");
+        java.append("        }\n");
+        java.append("    }\n");
+
+        for (final CompiledST impl : methods) {
+            java.append("\n");
+            java.append("    // ").append(impl.name == null ? "" : impl.name.replace('\n', ' ')).append("\n");
+            java.append("    private static void ").append(methodNames.get(impl)).append("(").append(PARAMETERS).append(") {\n");
+            java.append(methodBodies.get(impl));
+            java.append("    }\n");
+        }
+        java.append("}\n");
+        return java.toString();
+    }
+
+    /**
+     * Name of the method rendering the template, translating it the first time, or null if it cannot be translated.
+     */
+    private String method(final CompiledST impl) {
+        if (methodNames.containsKey(impl)) {
+            return methodBodies.get(impl) == null ? null : methodNames.get(impl);
+        }
+        if (!translating.add(impl)) {
+            // recursive templates are left to ST
+            return null;
+        }
+        final String name = "t" + nextMethod++;
+        final String body = new Translation(impl).translate();
+        translating.remove(impl);
+        methodNames.put(impl, name);
+        methodBodies.put(impl, body);
+        if (body == null) {
+            return null;
+        }
+        methods.add(impl);
+        return name;
+    }
+
+    static String literal(final String s) {
+        final StringBuilder java = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    java.append("\\\"");
+                    break;
+                case '\\':
+                    java.append("\\\\");
+                    break;
+                case '\n':
+                    java.append("\\n");
+                    break;
+                case '\r':
+                    java.append("\\r");
+                    break;
+                case '\t':
+                    java.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c > 0x7e) {
+                        java.append(String.format("\\u%04x", (int) c));
+                    }
+                    else {
+                        java.append(c);
+                    }
+            }
+        }
+        return java.append('"').toString();
+    }
+
+    /**
+     * A value on the interpreter's operand stack, as a Java expression.
+     */
+    private static final class Operand {
+        private final String java;
+        private final String literal;
+        private final String call;
+        private final boolean options;
+        private String separator;
+
+        private Operand(final String java, final String literal, final String call, final boolean options) {
+            this.java = java;
+            this.literal = literal;
+            this.call = call;
+            this.options = options;
+        }
+
+        private static Operand value(final String java) {
+            return new Operand(java, null, null, false);
+        }
+
+        private static Operand string(final String s) {
+            return new Operand(literal(s), s, null, false);
+        }
+
+        private static Operand call(final String method) {
+            return new Operand(null, null, method, false);
+        }
+
+        private static Operand options() {
+            return new Operand(null, null, null, true);
+        }
+
+        private boolean isValue() {
+            return java != null;
+        }
+    }
+
+    /**
+     * Translates the bytecode of one template. Branches in ST's bytecode only come from {@code if}, which compiles to
+     * a condition, a {@code BRF} past the block, and for an {@code else}, a {@code BR} past the else block at the end
+     * of the block, so they map onto nested Java {@code if} statements.
+     */
+    private final class Translation {
+        private final CompiledST impl;
+        private final StringBuilder java = new StringBuilder();
+        private final Deque<Operand> stack = new ArrayDeque<>();
+        private final Set<Integer> starts = new HashSet<>();
+        private final Set<Integer> targets = new HashSet<>();
+        private final Map<Integer, Integer> previousOpcodes = new HashMap<>();
+        private boolean marksLines;
+
+        private Translation(final CompiledST impl) {
+            this.impl = impl;
+        }
+
+        private String translate() {
+            int ip = 0;
+            int previous = 0;
+            while (ip < impl.codeSize) {
+                final int opcode = impl.instrs[ip];
+                final int operands = CompiledTemplates.operandCount(opcode);
+                if (operands < 0) {
+                    return null;
+                }
+                starts.add(ip);
+                previousOpcodes.put(ip, previous);
+                if (opcode == Bytecode.INSTR_BR || opcode == Bytecode.INSTR_BRF) {
+                    targets.add(operand(ip + 1));
+                }
+                previous = opcode;
+                ip += 1 + operands * Bytecode.OPND_SIZE_IN_BYTES;
+            }
+
+            if (!block(0, impl.codeSize, 2) || !stack.isEmpty()) {
+                return null;
+            }
+            if (marksLines) {
+                // ST writes a newline only if the line has something on it, or follows another newline
+                java.insert(0, "        int mark = out.length();\n");
+            }
+            return java.toString();
+        }
+
+        private boolean block(final int start, final int end, final int depth) {
+            final int height = stack.size();
+            int ip = start;
+            while (ip < end) {
+                final int opcode = impl.instrs[ip];
+                int next = ip + 1 + CompiledTemplates.operandCount(opcode) * Bytecode.OPND_SIZE_IN_BYTES;
+                switch (opcode) {
+                    case Bytecode.INSTR_NOOP:
+                        break;
+                    case Bytecode.INSTR_WRITE_STR:
+                        line(depth, SUPPORT + ".text(out, " + literal(string(ip + 1)) + ", ai);");
+                        break;
+                    case Bytecode.INSTR_LOAD_STR:
+                        stack.push(Operand.string(string(ip + 1)));
+                        break;
+                    case Bytecode.INSTR_LOAD_ATTR: {
+                        final String name = string(ip + 1);
+                        final STGroup nativeGroup = impl.nativeGroup != null ? impl.nativeGroup : group;
+                        if (nativeGroup.isDictionary(name)) {
+                            return false;
+                        }
+                        stack.push(Operand.value("a.get(" + literal(name) + ")"));
+                        break;
+                    }
+                    case Bytecode.INSTR_LOAD_LOCAL: {
+                        final String name = formalArgument(operand(ip + 1));
+                        if (name == null) {
+                            return false;
+                        }
+                        stack.push(Operand.value("a.get(" + literal(name) + ")"));
+                        break;
+                    }
+                    case Bytecode.INSTR_NULL:
+                        stack.push(Operand.value("null"));
+                        break;
+                    case Bytecode.INSTR_TRUE:
+                        stack.push(Operand.value("Boolean.TRUE"));
+                        break;
+                    case Bytecode.INSTR_FALSE:
+                        stack.push(Operand.value("Boolean.FALSE"));
+                        break;
+                    case Bytecode.INSTR_NOT: {
+                        final Operand value = pop();
+                        if (value == null) {
+                            return false;
+                        }
+                        stack.push(Operand.value("Boolean.valueOf(!" + SUPPORT + ".test(" + value.java + "))"));
+                        break;
+                    }
+                    case Bytecode.INSTR_AND:
+                    case Bytecode.INSTR_OR: {
+                        final Operand right = pop();
+                        final Operand left = pop();
+                        if (left == null || right == null) {
+                            return false;
+                        }
+                        stack.push(Operand.value("Boolean.valueOf(" + SUPPORT + ".test(" + left.java + ")"
+                                                 + (opcode == Bytecode.INSTR_AND ? " && " : " || ")
+                                                 + SUPPORT + ".test(" + right.java + "))"));
+                        break;
+                    }
+                    case Bytecode.INSTR_OPTIONS:
+                        stack.push(Operand.options());
+                        break;
+                    case Bytecode.INSTR_STORE_OPTION: {
+                        final Operand value = pop();
+                        final Operand options = stack.peek();
+                        if (value == null || value.literal == null || options == null || !options.options
+                            || operand(ip + 1) != SEPARATOR) {
+                            return false;
+                        }
+                        options.separator = value.literal;
+                        break;
+                    }
+                    case Bytecode.INSTR_NEW: {
+                        final String method = callee(string(ip + 1), operand(ip + 3));
+                        if (method == null) {
+                            return false;
+                        }
+                        stack.push(Operand.call(method));
+                        break;
+                    }
+                    case Bytecode.INSTR_WRITE: {
+                        if (stack.isEmpty()) {
+                            return false;
+                        }
+                        final Operand value = stack.pop();
+                        if (value.call != null) {
+                            line(depth, value.call + "(a, ai, out);");
+                        }
+                        else if (value.isValue()) {
+                            line(depth, SUPPORT + ".write(out, " + value.java + ", null, ai);");
+                        }
+                        else {
+                            return false;
+                        }
+                        break;
+                    }
+                    case Bytecode.INSTR_WRITE_OPT: {
+                        if (stack.isEmpty() || !stack.peek().options) {
+                            return false;
+                        }
+                        final Operand options = stack.pop();
+                        final Operand value = pop();
+                        if (value == null) {
+                            return false;
+                        }
+                        line(depth, SUPPORT + ".write(out, " + value.java + ", "
+                                    + (options.separator == null ? "null" : literal(options.separator)) + ", ai);");
+                        break;
+                    }
+                    case Bytecode.INSTR_POP:
+                        if (stack.isEmpty()) {
+                            return false;
+                        }
+                        stack.pop();
+                        break;
+                    case Bytecode.INSTR_NEWLINE: {
+                        final boolean afterNewline = previousOpcodes.get(ip) == Bytecode.INSTR_NEWLINE;
+                        if (afterNewline && targets.contains(ip)) {
+                            // whether the previous instruction was a newline depends on how we got here
+                            return false;
+                        }
+                        marksLines = true;
+                        if (afterNewline) {
+                            line(depth, "out.append(" + SUPPORT + ".NEWLINE);");
+                        }
+                        else {
+                            line(depth, "if (out.length() > mark) {");
+                            line(depth + 1, "out.append(" + SUPPORT + ".NEWLINE);");
+                            line(depth, "}");
+                        }
+                        line(depth, "mark = out.length();");
+                        break;
+                    }
+                    case Bytecode.INSTR_BRF: {
+                        final Operand condition = pop();
+                        if (condition == null || stack.size() != height) {
+                            return false;
+                        }
+                        final int target = operand(ip + 1);
+                        if (target <= ip || target > end || (target < end && !starts.contains(target))) {
+                            return false;
+                        }
+                        int thenEnd = target;
+                        int elseEnd = target;
+                        final int jump = target - 1 - Bytecode.OPND_SIZE_IN_BYTES;
+                        if (jump > ip && starts.contains(jump) && impl.instrs[jump] == Bytecode.INSTR_BR
+                            && operand(jump + 1) > target) {
+                            elseEnd = operand(jump + 1);
+                            if (elseEnd > end || (elseEnd < end && !starts.contains(elseEnd))) {
+                                return false;
+                            }
+                            thenEnd = jump;
+                        }
+                        line(depth, "if (" + SUPPORT + ".test(" + condition.java + ")) {");
+                        if (!block(next, thenEnd, depth + 1)) {
+                            return false;
+                        }
+                        if (elseEnd > target) {
+                            line(depth, "}");
+                            line(depth, "else {");
+                            if (!block(target, elseEnd, depth + 1)) {
+                                return false;
+                            }
+                        }
+                        line(depth, "}");
+                        next = elseEnd;
+                        break;
+                    }
+                    default:
+                        return false;
+                }
+                ip = next;
+            }
+            return ip == end && stack.size() == height;
+        }
+
+        /**
+         * Method rendering a called template, or null if it cannot be called from generated code. Templates are
+         * called without arguments, and see the attributes of the caller; templates with arguments would hide the
+         * caller's attributes of the same name.
+         */
+        private String callee(final String name, final int arguments) {
+            if (arguments != 0) {
+                return null;
+            }
+            final STGroup nativeGroup = impl.nativeGroup != null ? impl.nativeGroup : group;
+            final CompiledST callee = nativeGroup.lookupTemplate(name);
+            if (callee == null
+                || (callee.formalArguments != null && !callee.formalArguments.isEmpty())
+                || callee.isAnonSubtemplate
+                || callee.isRegion) {
+                return null;
+            }
+            return method(callee);
+        }
+
+        private String formalArgument(final int index) {
+            if (impl.formalArguments != null) {
+                for (final FormalArgument arg : impl.formalArguments.values()) {
+                    if (arg.index == index) {
+                        return arg.name;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Pops a plain value, or returns null if the top of the stack is not one.
+         */
+        private Operand pop() {
+            if (stack.isEmpty() || !stack.peek().isValue()) {
+                return null;
+            }
+            return stack.pop();
+        }
+
+        private String string(final int index) {
+            return impl.strings[operand(index)];
+        }
+
+        private int operand(final int index) {
+            return ((impl.instrs[index] & 0xFF) << 8) | (impl.instrs[index + 1] & 0xFF);
+        }
+
+        private void line(final int depth, final String statement) {
+            for (int i = 0; i < depth; i++) {
+                java.append("    ");
+            }
+            java.append(statement).append('\n');
+        }
+    }
+}
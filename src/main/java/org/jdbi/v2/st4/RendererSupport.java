@@ -0,0 +1,166 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.stringtemplate.v4.ST;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * What generated renderers call to write text and attribute values, and to test conditions, the way ST's interpreter
+ * and writers do. Not meant to be used directly.
+ */
+public final class RendererSupport {
+
+    /**
+     * The line separator ST's writers use.
+     */
+    public static final String NEWLINE = System.getProperty("line.separator");
+
+    private static final Unsupported UNSUPPORTED = new Unsupported();
+
+    private RendererSupport() {
+    }
+
+    /**
+     * Writes text like ST's writers do: the auto indenting writer drops carriage returns and writes line feeds as
+     * the line separator, the other writer copies text as is. Returns the number of characters written.
+     */
+    public static int text(final StringBuilder out, final String text, final boolean autoIndent) {
+        if (!autoIndent) {
+            out.append(text);
+            return text.length();
+        }
+        final int start = out.length();
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c == '\r') {
+                continue;
+            }
+            if (c == '\n') {
+                out.append(NEWLINE);
+            }
+            else {
+                out.append(c);
+            }
+        }
+        return out.length() - start;
+    }
+
+    /**
+     * Writes an attribute value like ST does: nothing for null, each element for collections and arrays, with the
+     * separator between elements which wrote something, and the string form of anything else. Returns the number of
+     * characters written.
+     */
+    public static int write(final StringBuilder out, final Object value, final String separator, final boolean autoIndent) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Collection) {
+            return writeAll(out, ((Collection<?>) value).iterator(), separator, autoIndent);
+        }
+        if (value.getClass().isArray()) {
+            return writeAll(out, new ArrayIterator(value), separator, autoIndent);
+        }
+        if (value instanceof Map || value instanceof Iterable || value instanceof Iterator || value instanceof ST) {
+            throw UNSUPPORTED;
+        }
+        return text(out, value.toString(), autoIndent);
+    }
+
+    private static int writeAll(final StringBuilder out,
+                                final Iterator<?> values,
+                                final String separator,
+                                final boolean autoIndent) {
+        int n = 0;
+        boolean seenAValue = false;
+        while (values.hasNext()) {
+            final Object value = values.next();
+            if (seenAValue && separator != null && value != null) {
+                n += text(out, separator, autoIndent);
+            }
+            final int written = write(out, value, separator, autoIndent);
+            if (written > 0) {
+                seenAValue = true;
+            }
+            n += written;
+        }
+        return n;
+    }
+
+    /**
+     * Tests a condition like ST does: null and false are false, as are empty collections, maps and iterables.
+     */
+    public static boolean test(final Object value) {
+        if (value == null) {
+            return false;
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof Collection) {
+            return !((Collection<?>) value).isEmpty();
+        }
+        if (value instanceof Map) {
+            return !((Map<?, ?>) value).isEmpty();
+        }
+        if (value instanceof Iterable) {
+            return ((Iterable<?>) value).iterator().hasNext();
+        }
+        if (value instanceof Iterator || value.getClass().isArray()) {
+            throw UNSUPPORTED;
+        }
+        return true;
+    }
+
+    /**
+     * Thrown when a generated renderer meets an attribute value it does not handle, so the template is rendered by
+     * ST instead. Preallocated, without a stack trace.
+     */
+    public static final class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private Unsupported() {
+            super("value not supported by generated renderer", null, false, false);
+        }
+    }
+
+    private static final class ArrayIterator implements Iterator<Object> {
+        private final Object array;
+        private final int length;
+        private int index;
+
+        private ArrayIterator(final Object array) {
+            this.array = array;
+            this.length = Array.getLength(array);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < length;
+        }
+
+        @Override
+        public Object next() {
+            if (index >= length) {
+                throw new NoSuchElementException();
+            }
+            return Array.get(array, index++);
+        }
+    }
+}
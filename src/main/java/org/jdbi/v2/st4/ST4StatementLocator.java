@@ -19,66 +19,557 @@ import org.stringtemplate.v4.ST;
 import org.stringtemplate.v4.STGroup;
 import org.stringtemplate.v4.STGroupFile;
 
-import java.net.MalformedURLException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 public class ST4StatementLocator implements StatementLocator {
 
-    private static final ConcurrentMap<String, STGroup> CACHE = new ConcurrentHashMap<>();
+    /**
+     * Compiled sql literals, bounded by the total length of the literal text.
+     */
+    private static final BoundedCache<String, PreparedTemplate> LITERALS =
+        new BoundedCache<>(1 << 20, (literal, template) -> literal.length());
+
+    private static final boolean UNIX_NEWLINES = "\n".equals(System.getProperty("line.separator"));
+
+    private final Function<StatementContext, PreparedGroup> group;
+    private final LocatorStats stats;
 
-    private final Function<StatementContext, STGroup> group;
+    private RenderedStatementCache renderCache;
+    private boolean constantTemplates = true;
+    private LocateListener listener;
+    private boolean autoIndent = true;
+    private boolean generatedRenderers = true;
+    private int maxLength = Integer.MAX_VALUE;
+    private StatementVariety variety;
 
     public ST4StatementLocator(final STGroup group) {
-        this((_ctx) -> group);
+        this(new PreparedGroup(group).prepareAll());
     }
 
     public ST4StatementLocator(final Function<StatementContext, STGroup> groupProvider) {
+        this(PreparedGroup.preparing(groupProvider), new LocatorStats());
+    }
+
+    private ST4StatementLocator(final PreparedGroup group) {
+        this((_ctx) -> group, new LocatorStats());
+    }
+
+    private ST4StatementLocator(final Function<StatementContext, PreparedGroup> groupProvider, final LocatorStats stats) {
         this.group = groupProvider;
+        this.stats = stats;
+    }
+
+    private ST4StatementLocator(final ST4StatementLocator other, final Function<StatementContext, PreparedGroup> groupProvider) {
+        this(groupProvider, other.stats);
+        this.renderCache = other.renderCache;
+        this.constantTemplates = other.constantTemplates;
+        this.listener = other.listener;
+        this.autoIndent = other.autoIndent;
+        this.generatedRenderers = other.generatedRenderers;
+        this.maxLength = other.maxLength;
+        this.variety = other.variety;
+    }
+
+    /**
+     * Returns a copy of this locator which remembers rendered statements in the given cache. Statements are keyed
+     * by template group, statement name, auto indentation and the values of all context attributes, see
+     * {@link RenderedStatementCache} for which attribute values can be cached. The cache may be shared by locators
+     * with different settings.
+     */
+    public ST4StatementLocator withRenderCache(final RenderedStatementCache cache) {
+        final ST4StatementLocator copy = new ST4StatementLocator(this, this.group);
+        copy.renderCache = cache;
+        return copy;
+    }
+
+    /**
+     * Returns a copy of this locator which does or does not answer templates without any expressions with their
+     * text, worked out when the template is first seen, instead of rendering them. This is on by default.
+     */
+    public ST4StatementLocator withConstantTemplates(final boolean enabled) {
+        final ST4StatementLocator copy = new ST4StatementLocator(this, this.group);
+        copy.constantTemplates = enabled;
+        return copy;
+    }
+
+    /**
+     * Returns a copy of this locator which does or does not render with ST's auto indenting writer. The auto
+     * indenting writer, which is the default, indents every line an expression writes as far as the expression
+     * itself, and drops whitespace only lines. Without it, text is copied into the statement as is, which is a little
+     * cheaper, and is all SQL needs.
+     */
+    public ST4StatementLocator withAutoIndent(final boolean enabled) {
+        final ST4StatementLocator copy = new ST4StatementLocator(this, this.group);
+        copy.autoIndent = enabled;
+        return copy;
+    }
+
+    /**
+     * Returns a copy of this locator which does or does not render templates with the renderers
+     * {@link SqlTemplateProcessor} generated for their group at build time, where there are any. This is on by
+     * default; templates the renderers do not cover, and attribute values they do not handle, are rendered by ST.
+     */
+    public ST4StatementLocator withGeneratedRenderers(final boolean enabled) {
+        final ST4StatementLocator copy = new ST4StatementLocator(this, this.group);
+        copy.generatedRenderers = enabled;
+        return copy;
+    }
+
+    /**
+     * Returns a copy of this locator which fails statements longer than {@code maxChars} with
+     * {@link StatementTooLongException}. While rendering, no more than the limit is kept in memory or written to a
+     * sink, and rendering stops once the statement is longer than that. There is no limit by default.
+     */
+    public ST4StatementLocator withMaxLength(final int maxChars) {
+        if (maxChars < 0) {
+            throw new IllegalArgumentException("maximum length must not be negative: " + maxChars);
+        }
+        final ST4StatementLocator copy = new ST4StatementLocator(this, this.group);
+        copy.maxLength = maxChars;
+        return copy;
+    }
+
+    /**
+     * Returns a copy of this locator which estimates, in the given tracker, how many distinct statements each template
+     * is located as. Pass null to stop tracking.
+     */
+    public ST4StatementLocator withVarietyTracking(final StatementVariety tracker) {
+        final ST4StatementLocator copy = new ST4StatementLocator(this, this.group);
+        copy.variety = tracker;
+        return copy;
+    }
+
+    /**
+     * Returns a copy of this locator which tells the listener about every statement it locates, and how long each
+     * step took. Pass null to remove the listener.
+     */
+    public ST4StatementLocator withListener(final LocateListener listener) {
+        final ST4StatementLocator copy = new ST4StatementLocator(this, this.group);
+        copy.listener = listener;
+        return copy;
+    }
+
+    /**
+     * Returns a copy of this locator, with all of its settings, which uses the given group.
+     */
+    private ST4StatementLocator withGroup(final PreparedGroup stg) {
+        return new ST4StatementLocator(this, (_ctx) -> stg);
+    }
+
+    private ST4StatementLocator withGroup(final Function<StatementContext, PreparedGroup> groupProvider) {
+        return new ST4StatementLocator(this, groupProvider);
+    }
+
+    /**
+     * Counters of how statements were located, shared with the locators derived from this one.
+     */
+    public LocatorStats getStats() {
+        return stats;
     }
 
     @Override
     public String locate(final String name, final StatementContext ctx) throws Exception {
-        ST st = this.group.apply(ctx).getInstanceOf(name);
-        if (st == null) {
+        // constant templates and verbatim literals read no attributes, so they are only fetched when rendering
+        return locate(name, ctx, null);
+    }
+
+    /**
+     * Locates the statement for each row of a batch, where each row holds the attributes, such as defines, the
+     * statement is rendered with for that row. Rows which agree on the attributes the template reads share one
+     * rendered statement, and rows rendering to the same SQL share one statement in the result, so a caller can run
+     * one {@code PreparedBatch} per distinct statement. The context only picks the template group, and may be null
+     * for locators whose group does not depend on it. Rows are rendered one by one if they hold attribute values
+     * which cannot be compared, see {@link RenderedStatementCache}.
+     */
+    public LocatedBatch locateBatch(final String name,
+                                    final StatementContext ctx,
+                                    final List<? extends Map<String, Object>> rows) {
+        final Set<String> names = attributeNames(this.group.apply(ctx), name);
+        final Map<RenderedStatementCache.Key, LocatedBatch.Statement> byAttributes = new HashMap<>();
+        final Map<String, LocatedBatch.Statement> bySql = new LinkedHashMap<>();
+        for (int i = 0; i < rows.size(); i++) {
+            final Map<String, Object> row = rows.get(i);
+            // every row of the batch is located in the same group
+            final RenderedStatementCache.Key key = RenderedStatementCache.key(0, name, autoIndent, row, names);
+            LocatedBatch.Statement statement = key == null ? null : byAttributes.get(key);
+            if (statement != null) {
+                stats.batchedRows.increment();
+            }
+            else {
+                final String sql = locate(name, ctx, row);
+                statement = bySql.get(sql);
+                if (statement == null) {
+                    statement = new LocatedBatch.Statement(sql);
+                    bySql.put(sql, statement);
+                }
+                if (key != null) {
+                    // rows may be reused maps, so keep a copy of the attributes which count
+                    byAttributes.put(key.snapshot(), statement);
+                }
+            }
+            statement.add(i);
+        }
+        return new LocatedBatch(new ArrayList<>(bySql.values()), rows.size());
+    }
+
+    /**
+     * Names of the attributes the named template, or sql literal, may read, or null if that is not known.
+     */
+    private static Set<String> attributeNames(final PreparedGroup stg, final String name) {
+        final PreparedTemplate template = stg.lookup(name);
+        if (template != null) {
+            return template.attributeNames();
+        }
+        return isVerbatim(name) ? Collections.<String>emptySet() : literal(name).attributeNames();
+    }
+
+    /**
+     * Locates the statement, rendering templates with the given attributes, or the attributes of the context if
+     * they are null.
+     */
+    private String locate(final String name, final StatementContext ctx, final Map<String, Object> attributes) {
+        if (listener != null) {
+            final LocateEvent event = new LocateEvent(name);
+            final String sql = checkLength(locate(name, ctx, attributes, event));
+            event.length = sql.length();
+            event.statement = sql;
+            listener.located(event);
+            return sql;
+        }
+        return checkLength(locate(name, ctx, attributes, null));
+    }
+
+    /**
+     * Checks statements which were not rendered under the limit, such as constant templates and cached statements.
+     */
+    private String checkLength(final String sql) {
+        if (sql.length() > maxLength) {
+            throw new StatementTooLongException(maxLength);
+        }
+        return sql;
+    }
+
+    /**
+     * Locates the statement and writes it to the sink, such as a {@link java.io.Writer} or a
+     * {@link java.nio.CharBuffer}, rather than returning it, and returns its length. Templates are rendered by ST
+     * straight into the sink, so a very large statement is never held in memory as a whole; they are not looked up
+     * in, or added to, the render cache, nor rendered by generated renderers.
+     *
+     * @throws StatementTooLongException if the statement is longer than the {@link #withMaxLength(int) limit}, once
+     * as much as the limit was written to the sink
+     * @throws IOException if the sink fails; nothing more is written to it after a failure
+     */
+    public long locateTo(final String name, final StatementContext ctx, final Appendable out) throws IOException {
+        return stream(name, ctx, out);
+    }
+
+    /**
+     * Works out the length of the statement without keeping it: templates are rendered, but only the characters
+     * counted.
+     *
+     * @throws StatementTooLongException if the statement is longer than the {@link #withMaxLength(int) limit}
+     */
+    public long locatedLength(final String name, final StatementContext ctx) {
+        try {
+            return stream(name, ctx, null);
+        }
+        catch (final IOException e) {
+            // nothing is written, so nothing can fail
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long stream(final String name, final StatementContext ctx, final Appendable out) throws IOException {
+        final LocateEvent event = listener == null ? null : new LocateEvent(name);
+        stats.locates.increment();
+        final long lookupStart = event == null ? 0 : System.nanoTime();
+        final PreparedGroup stg = this.group.apply(ctx);
+        PreparedTemplate template = stg.lookup(name);
+        final boolean literal = template == null;
+        final StatementSink sink = new StatementSink(out, maxLength);
+        if (literal && isVerbatim(name)) {
+            stats.verbatimLiterals.increment();
+            if (event != null) {
+                looked(event, stg, true, lookupStart);
+            }
+            sink.writeStatement(name);
+            return streamed(sink, event, LocateEvent.Outcome.VERBATIM);
+        }
+        if (literal) {
+            template = literal(name);
+        }
+        if (event != null) {
+            looked(event, stg, literal, lookupStart);
+        }
+
+        final String constant = constantTemplates ? template.constant(autoIndent) : null;
+        if (constant != null) {
+            stats.constantTemplates.increment();
+            sink.writeStatement(constant);
+            return streamed(sink, event, LocateEvent.Outcome.CONSTANT);
+        }
+
+        if (literal) {
+            stats.renderedLiterals.increment();
+        }
+        else {
+            stats.renderedTemplates.increment();
+        }
+        final long instanceStart = event == null ? 0 : System.nanoTime();
+        final ST st = template.newInstance(ctx.getAttributes());
+        final long renderStart = event == null ? 0 : System.nanoTime();
+        PreparedTemplate.write(st, autoIndent, sink);
+        if (event != null) {
+            event.instanceNanos = renderStart - instanceStart;
+            event.renderNanos = System.nanoTime() - renderStart;
+        }
+        return streamed(sink, event, LocateEvent.Outcome.RENDERED);
+    }
+
+    private long streamed(final StatementSink sink,
+                          final LocateEvent event,
+                          final LocateEvent.Outcome outcome) throws IOException {
+        final long length = sink.finish();
+        if (event != null) {
+            event.outcome = outcome;
+            event.length = (int) Math.min(length, Integer.MAX_VALUE);
+            listener.located(event);
+        }
+        return length;
+    }
+
+    /**
+     * Locates the statement, recording what happened in the event, if there is one.
+     */
+    private String locate(final String name,
+                          final StatementContext ctx,
+                          final Map<String, Object> attributes,
+                          final LocateEvent event) {
+        stats.locates.increment();
+        final long lookupStart = event == null ? 0 : System.nanoTime();
+        final PreparedGroup stg = this.group.apply(ctx);
+        final PreparedTemplate template = stg.lookup(name);
+        final String sql = locate(name, ctx, stg, template, attributes, event, lookupStart);
+        if (variety != null) {
+            variety.record(stg.source(), template == null ? null : name, sql);
+        }
+        return sql;
+    }
+
+    private String locate(final String name,
+                          final StatementContext ctx,
+                          final PreparedGroup stg,
+                          final PreparedTemplate found,
+                          final Map<String, Object> given,
+                          final LocateEvent event,
+                          final long lookupStart) {
+        PreparedTemplate template = found;
+        final boolean literal = template == null;
+        if (literal) {
             // if there is no template by this name in the group, treat it as a template literal.
-            st = new ST(name);
+            if (isVerbatim(name)) {
+                stats.verbatimLiterals.increment();
+                if (event != null) {
+                    looked(event, stg, true, lookupStart).outcome = LocateEvent.Outcome.VERBATIM;
+                }
+                return name;
+            }
+            template = literal(name);
+        }
+        if (event != null) {
+            looked(event, stg, literal, lookupStart);
+        }
+
+        final String constant = constantTemplates ? template.constant(autoIndent) : null;
+        if (constant != null) {
+            stats.constantTemplates.increment();
+            if (event != null) {
+                event.outcome = LocateEvent.Outcome.CONSTANT;
+            }
+            return constant;
+        }
+
+        final Map<String, Object> attributes = given != null ? given : ctx.getAttributes();
+        if (renderCache == null) {
+            return render(template, literal, attributes, event);
+        }
+
+        final RenderedStatementCache.Key key =
+            renderCache.keyFor(stg.generation(), name, autoIndent, attributes, template.attributeNames());
+        if (key == null) {
+            return render(template, literal, attributes, event);
+        }
+
+        String sql = renderCache.get(key);
+        if (sql == null) {
+            sql = render(template, literal, attributes, event);
+            renderCache.put(key, sql);
+            if (event != null) {
+                event.renderCache = LocateEvent.RenderCacheResult.MISS;
+            }
+        }
+        else {
+            // the cache may be shared with locators which allow longer statements
+            if (sql.length() > maxLength) {
+                throw new StatementTooLongException(maxLength);
+            }
+            if (event != null) {
+                event.renderCache = LocateEvent.RenderCacheResult.HIT;
+                event.outcome = LocateEvent.Outcome.CACHED;
+            }
+        }
+        return sql;
+    }
+
+    private static LocateEvent looked(final LocateEvent event,
+                                      final PreparedGroup stg,
+                                      final boolean literal,
+                                      final long lookupStart) {
+        event.groupLookupNanos = System.nanoTime() - lookupStart;
+        event.group = stg.source();
+        event.literal = literal;
+        return event;
+    }
+
+    private String render(final PreparedTemplate template,
+                          final boolean literal,
+                          final Map<String, Object> attributes,
+                          final LocateEvent event) {
+        if (literal) {
+            stats.renderedLiterals.increment();
+        }
+        else {
+            stats.renderedTemplates.increment();
+            if (generatedRenderers && template.generated()) {
+                final long renderStart = event == null ? 0 : System.nanoTime();
+                final String sql = template.renderGenerated(attributes, autoIndent, maxLength);
+                if (sql != null) {
+                    stats.generatedRenders.increment();
+                    if (event != null) {
+                        event.outcome = LocateEvent.Outcome.RENDERED;
+                        event.renderNanos = System.nanoTime() - renderStart;
+                    }
+                    return sql;
+                }
+            }
+        }
+        if (event == null) {
+            return template.render(template.newInstance(attributes), autoIndent, maxLength);
         }
 
-        // we add all context values, ST4 explodes if you add a value that lacks a formal argument,
-        // iff hasFormalArgs is true. If it is false, it just uses values opportunistically. This is gross
-        // but works. -brianm
-        st.impl.hasFormalArgs = false;
+        event.outcome = LocateEvent.Outcome.RENDERED;
+        final long instanceStart = System.nanoTime();
+        final ST st = template.createInstance();
+        final long attributeStart = System.nanoTime();
+        template.addAttributes(st, attributes);
+        final long renderStart = System.nanoTime();
+        final String sql = template.render(st, autoIndent, maxLength);
+        final long renderEnd = System.nanoTime();
+        event.instanceNanos = attributeStart - instanceStart;
+        event.attributeNanos = renderStart - attributeStart;
+        event.renderNanos = renderEnd - renderStart;
+        return sql;
+    }
+
+    /**
+     * Looks up a template literal, compiling it only the first time it is seen.
+     */
+    private static PreparedTemplate literal(final String template) {
+        return LITERALS.computeIfAbsent(template, (t) -> {
+            final ST st = new ST(t);
+            return new PreparedTemplate(st.groupThatCreatedThisInstance, st.impl);
+        });
+    }
 
-        for (final Map.Entry<String, Object> attr : ctx.getAttributes().entrySet()) {
-            st.add(attr.getKey(), attr.getValue());
+    /**
+     * True if ST would render the literal as is: it holds no expressions, as it has no start delimiter, no escapes,
+     * and no line breaks or whitespace only lines that the writer would translate or drop. ST does not know about
+     * SQL quoting, so a '&lt;' inside a quoted string is an expression just the same.
+     */
+    static boolean isVerbatim(final String literal) {
+        int lineStart = 0;
+        boolean onlyIndentation = true;
+        for (int i = 0; i < literal.length(); i++) {
+            final char c = literal.charAt(i);
+            if (c == '<' || c == '\\' || c == '\r') {
+                return false;
+            }
+            if (c == '\n') {
+                if (!UNIX_NEWLINES || (onlyIndentation && i > lineStart)) {
+                    return false;
+                }
+                lineStart = i + 1;
+                onlyIndentation = true;
+            }
+            else if (c != ' ' && c != '\t') {
+                onlyIndentation = false;
+            }
         }
+        return !onlyIndentation || literal.length() == lineStart;
+    }
 
-        return st.render();
+    /**
+     * Obtains a locator for a group which is fully loaded and will not change any more, which looks templates up in
+     * an immutable snapshot of the group and the groups it imports, without taking any of ST's locks. Templates
+     * defined in the group afterwards are not seen. Groups loaded from group files by the other factory methods are
+     * snapshotted this way already.
+     */
+    public static ST4StatementLocator snapshotOf(STGroup group) {
+        return new ST4StatementLocator(new PreparedGroup(group).freeze());
     }
 
     /**
-     * Obtains a locator based on a classpath path, using a global template group CACHE.
+     * Obtains a locator based on a classpath path, using the {@link STGroupCache#shared() shared} template group cache.
      */
     public static StatementLocator fromClasspath(String path) {
         return fromClasspath(UseSTGroupCache.YES, path);
     }
 
     /**
-     * Obtains a locator based on a classpath path. Allows flag to indicate whether the global STGroup CACHE should be
-     * used. In general, the only reasons to NOT use the CACHE are: (1) if you are fiddling with the templates during development
-     * and want to make changes without having to restart the server; and (2) if you use something like the tomcat
-     * deployer to push new versions without restarting the JVM which causes static maps to leak memory.
+     * Obtains a locator based on a classpath path. Allows flag to indicate whether the shared template group cache
+     * should be used. In general, the only reason to NOT use the cache is if you are fiddling with the templates
+     * during development and want to make changes without having to restart the server.
      */
     public static StatementLocator fromClasspath(UseSTGroupCache useCache, String path) {
-        return forURL(useCache, ST4StatementLocator.class.getResource(path));
+        return classpathLocator(useCache, path);
+    }
+
+    static ST4StatementLocator classpathLocator(UseSTGroupCache useCache, String path) {
+        if (useCache == UseSTGroupCache.RELOAD_ON_CHANGE) {
+            return urlLocator(useCache, ST4StatementLocator.class.getResource(path));
+        }
+        return fromClasspath(cacheFor(useCache), path);
     }
 
     /**
-     * Obtains a locator based on the type passed in, using a global template group CACHE.
+     * Obtains a locator based on a classpath path, using the given template group cache.
+     */
+    public static ST4StatementLocator fromClasspath(STGroupCache cache, String path) {
+        return new ST4StatementLocator(loadGroup(cache,
+                                                 ST4StatementLocator.class.getResource(path),
+                                                 classpathResource(path),
+                                                 ST4StatementLocator.class.getClassLoader(),
+                                                 null));
+    }
+
+    /**
+     * Obtains a locator based on the type passed in, using the {@link STGroupCache#shared() shared} template group
+     * cache.
      * <p>
      * STGroup is loaded from the classpath via sqlObjectType.getResource( ), such that names line
      * up with the package and class, so: com.example.Foo will look for /com/example/Foo.sql.stg . Inner classes
@@ -90,10 +581,11 @@ public class ST4StatementLocator implements StatementLocator {
     }
 
     /**
-     * Obtains a locator based on the type passed in. Allows flag to indicate whether the global STGroup CACHE should be
-     * used. In general, the only reasons to NOT use the CACHE are: (1) if you are fiddling with the templates during development
-     * and want to make changes without having to restart the server; and (2) if you use something like the tomcat
-     * deployer to push new versions without restarting the JVM which causes static maps to leak memory.
+     * Obtains a locator based on the type passed in. Allows flag to indicate whether the shared template group cache
+     * should be used. In general, the only reason to NOT use the cache is if you are fiddling with the templates
+     * during development and want to make changes without having to restart the server. Groups in the cache are
+     * scoped to the class loader of the type, and dropped once it is collected, so redeploying an application
+     * without restarting the JVM does not leak them.
      * <p>
      * STGroup is loaded from the classpath via sqlObjectType.getResource( ), such that names line
      * up with the package and class, so: com.example.Foo will look for /com/example/Foo.sql.stg . Inner classes
@@ -101,19 +593,109 @@ public class ST4StatementLocator implements StatementLocator {
      * be at /com/example/Foo.Bar.sql.stg .
      */
     public static StatementLocator forType(UseSTGroupCache useCache, final Class sqlObjectType) {
-        return forURL(useCache, classToUrl(sqlObjectType));
+        return typeLocator(useCache, sqlObjectType);
+    }
+
+    static ST4StatementLocator typeLocator(UseSTGroupCache useCache, final Class sqlObjectType) {
+        if (useCache == UseSTGroupCache.RELOAD_ON_CHANGE) {
+            return urlLocator(useCache, requiredGroupFile(sqlObjectType));
+        }
+        return forType(cacheFor(useCache), sqlObjectType);
+    }
+
+    /**
+     * Obtains a locator based on the type passed in, using the given template group cache.
+     *
+     * @throws IllegalArgumentException if there is no group file for the type
+     */
+    public static ST4StatementLocator forType(STGroupCache cache, final Class sqlObjectType) {
+        return new ST4StatementLocator(loadGroup(cache,
+                                                 requiredGroupFile(sqlObjectType),
+                                                 classToResource(sqlObjectType),
+                                                 sqlObjectType.getClassLoader(),
+                                                 null));
     }
 
     public static StatementLocator forURL(UseSTGroupCache useCache, URL url) {
-        final STGroup stg;
-        if (useCache == UseSTGroupCache.YES) {
-            stg = CACHE.computeIfAbsent(url.toString(), ST4StatementLocator::urlToSTGroup);
+        return urlLocator(useCache, url);
+    }
+
+    static ST4StatementLocator urlLocator(UseSTGroupCache useCache, URL url) {
+        if (useCache == UseSTGroupCache.RELOAD_ON_CHANGE) {
+            return new ST4StatementLocator(watchedGroup(url), new LocatorStats());
         }
-        else {
-            stg = urlToSTGroup(url.toString());
+        return forURL(cacheFor(useCache), url);
+    }
+
+    public static ST4StatementLocator forURL(STGroupCache cache, URL url) {
+        return new ST4StatementLocator(loadGroup(cache, url, null, null, null));
+    }
+
+    /**
+     * Obtains a locator for the group file at the path in the template source, using the given template group cache,
+     * or none if it is null.
+     *
+     * @throws IllegalArgumentException if the source has no group file at the path
+     */
+    public static ST4StatementLocator fromSource(STGroupCache cache, TemplateSource source, String path) {
+        final URL url = source.find(path);
+        if (url == null) {
+            throw new IllegalArgumentException("no template group " + path + " in " + source);
         }
+        final String resource = path.startsWith("/") ? path.substring(1) : path;
+        return new ST4StatementLocator(loadGroup(cache, url, resource, null, source));
+    }
+
+    /**
+     * Obtains a locator for a group which is reloaded in the background. Statements are located in whichever group
+     * was published last, and never wait for a reload.
+     */
+    public static ST4StatementLocator forGroup(ReloadableGroup group) {
+        return new ST4StatementLocator(watchedGroup(group), new LocatorStats());
+    }
+
+    private static Function<StatementContext, PreparedGroup> watchedGroup(final URL url) {
+        return watchedGroup(ReloadableGroup.watch(url, ReloadableGroup.DEFAULT_CHECK_INTERVAL_MILLIS,
+                                                  TimeUnit.MILLISECONDS));
+    }
 
-        return new ST4StatementLocator(stg);
+    /**
+     * Locates statements in whichever group was published last; holding the group keeps it checked for changes.
+     */
+    private static Function<StatementContext, PreparedGroup> watchedGroup(final ReloadableGroup group) {
+        return (_ctx) -> group.current();
+    }
+
+    /**
+     * Loads the template groups of the given sql object types into the shared template group cache and compiles all
+     * of their templates, including imported ones, so the first statements after startup do not pay for it.
+     *
+     * @see STGroupCache#preload(Executor, boolean, Class[])
+     */
+    public static PreloadReport preload(final Class<?>... sqlObjectTypes) {
+        return preload(Runnable::run, false, sqlObjectTypes);
+    }
+
+    /**
+     * Loads the template groups of the given sql object types into the shared template group cache.
+     *
+     * @see STGroupCache#preload(Executor, boolean, Class[])
+     */
+    public static PreloadReport preload(final Executor executor,
+                                        final boolean dryRender,
+                                        final Class<?>... sqlObjectTypes) {
+        return STGroupCache.shared().preload(executor, dryRender, sqlObjectTypes);
+    }
+
+    /**
+     * Loads the template groups at the given classpath paths into the shared template group cache.
+     *
+     * @see STGroupCache#preloadFromClasspath(Executor, boolean, String...)
+     */
+    public static PreloadReport preloadFromClasspath(final Executor executor,
+                                                     final boolean dryRender,
+                                                     final String... paths) {
+        return STGroupCache.shared().preloadFromClasspath(executor, dryRender, paths);
     }
 
     /**
@@ -144,6 +726,9 @@ public class ST4StatementLocator implements StatementLocator {
      * Supports a fallback template group for statements created not using a sql object.
      */
     public static StatementLocator perType(UseSTGroupCache useCache, URL baseTemplate) {
+        if (useCache == UseSTGroupCache.RELOAD_ON_CHANGE) {
+            return perType(useCache, urlLocator(useCache, baseTemplate));
+        }
         return perType(useCache, urlToSTGroup(baseTemplate));
     }
 
@@ -155,14 +740,83 @@ public class ST4StatementLocator implements StatementLocator {
      * Supports a fallback template group for statements created not using a sql object.
      */
     public static StatementLocator perType(UseSTGroupCache useCache, STGroup fallbackTemplateGroup) {
-        final StatementLocator fallback = new ST4StatementLocator(fallbackTemplateGroup);
+        return perType(useCache, new ST4StatementLocator(fallbackTemplateGroup));
+    }
 
-        if (useCache == UseSTGroupCache.YES) {
-            final ConcurrentMap<Class<?>, StatementLocator> sqlObjectCache = new ConcurrentHashMap<>();
+    /**
+     * Create a statement locator intended for setting on a DBI or Handle instance which will
+     * lookup a template group to use based on the name of the sql object type for a particular query, using
+     * the same logic as {@link UseST4StatementLocator}.
+     * <p>
+     * The fallback locator is used for statements created not using a sql object, and for sql object types which
+     * have no group file of their own. The locators for each sql object type are derived from it, and share its
+     * settings, such as a {@link #withRenderCache(RenderedStatementCache) render cache}.
+     */
+    public static StatementLocator perType(UseSTGroupCache useCache, ST4StatementLocator fallback) {
+        if (useCache == UseSTGroupCache.RELOAD_ON_CHANGE) {
+            final ConcurrentMap<Class<?>, CompletableFuture<StatementLocator>> sqlObjectCache =
+                new ConcurrentHashMap<>();
             return (name, ctx) -> {
-                if (ctx.getSqlObjectType() != null) {
-                    StatementLocator sl = sqlObjectCache.computeIfAbsent(ctx.getSqlObjectType(), (c) -> {
-                        return ST4StatementLocator.forType(useCache, ctx.getSqlObjectType());
+                final Class<?> c = ctx.getSqlObjectType();
+                if (c != null) {
+                    // loaded outside of the map's lock, so loading one type does not hold up others
+                    StatementLocator sl = Futures.memoize(sqlObjectCache, c, () -> {
+                        final URL url = classToUrl(c);
+                        return url == null ? fallback : fallback.withGroup(watchedGroup(url));
+                    });
+                    return sl.locate(name, ctx);
+                }
+                else {
+                    return fallback.locate(name, ctx);
+                }
+            };
+        }
+        return perType(cacheFor(useCache), fallback);
+    }
+
+    /**
+     * Create a statement locator intended for setting on a DBI or Handle instance which will
+     * lookup a template group to use based on the name of the sql object type for a particular query, using
+     * the same logic as {@link UseST4StatementLocator}, and loading groups into the given template group cache. Pass
+     * a cache of its own to each DBI to keep their groups apart, or null to load groups for every statement.
+     * <p>
+     * The fallback locator is used for statements created not using a sql object, and for sql object types which
+     * have no group file of their own. With a cache, whether a type has a group file is only worked out once per
+     * type. The locators for each sql object type are derived from the fallback locator, and share its settings.
+     */
+    public static StatementLocator perType(STGroupCache cache, ST4StatementLocator fallback) {
+        return perType(cache, fallback, ST4StatementLocator::classToUrl, null);
+    }
+
+    /**
+     * Create a statement locator intended for setting on a DBI or Handle instance which will
+     * lookup a template group to use based on the name of the sql object type for a particular query, like
+     * {@link #perType(STGroupCache, ST4StatementLocator)}, but finding the group file of each type in the template
+     * source, at the path of the type's package and name, such as {@code com/example/Foo.Bar.sql.stg}.
+     */
+    public static StatementLocator perType(STGroupCache cache, TemplateSource source, ST4StatementLocator fallback) {
+        return perType(cache, fallback, (c) -> source.find(classToResource(c)), source);
+    }
+
+    private static StatementLocator perType(STGroupCache cache,
+                                            ST4StatementLocator fallback,
+                                            Function<Class<?>, URL> groupFile,
+                                            TemplateSource source) {
+        // groups of a source are not scoped to the class loader of the type, so all types share them
+        final Function<Class<?>, ClassLoader> scope = (c) -> source == null ? c.getClassLoader() : null;
+        if (cache != null) {
+            final ConcurrentMap<Class<?>, CompletableFuture<StatementLocator>> sqlObjectCache =
+                new ConcurrentHashMap<>();
+            return (name, ctx) -> {
+                final Class<?> c = ctx.getSqlObjectType();
+                if (c != null) {
+                    // loaded outside of the map's lock, so loading one type does not hold up others
+                    StatementLocator sl = Futures.memoize(sqlObjectCache, c, () -> {
+                        final URL url = groupFile.apply(c);
+                        if (url == null) {
+                            return fallback;
+                        }
+                        return fallback.withGroup(loadGroup(cache, url, classToResource(c), scope.apply(c), source));
                     });
                     return sl.locate(name, ctx);
                 }
@@ -174,8 +828,9 @@ public class ST4StatementLocator implements StatementLocator {
         else {
             // if we are not caching, let's not cache the lookup of the template group either!
             return (name, ctx) -> {
-                if (ctx.getSqlObjectType() != null) {
-                    return ST4StatementLocator.forType(useCache, ctx.getSqlObjectType()).locate(name, ctx);
+                final URL url = ctx.getSqlObjectType() == null ? null : groupFile.apply(ctx.getSqlObjectType());
+                if (url != null) {
+                    return fallback.withGroup(loadGroup(null, url, null, null, source)).locate(name, ctx);
                 }
                 else {
                     return fallback.locate(name, ctx);
@@ -186,27 +841,110 @@ public class ST4StatementLocator implements StatementLocator {
 
 
     public enum UseSTGroupCache {
-        YES, NO
+        YES,
+        NO,
+        /**
+         * Keep the group loaded, but load it again once its file, or the file of a group it imports, changes. Files
+         * are checked once a second, in the background, and a changed group is only used if it compiles, like a
+         * {@link ReloadableGroup}. Meant for development, where templates are edited in place.
+         */
+        RELOAD_ON_CHANGE
+    }
+
+    private static STGroupCache cacheFor(UseSTGroupCache useCache) {
+        return useCache == UseSTGroupCache.YES ? STGroupCache.shared() : null;
     }
 
-    private static URL classToUrl(Class c) {
+    /**
+     * Loads a group file, through the cache if there is one. Groups in the cache use the renderers generated for them
+     * at build time, found by the classpath path of the group file, if it is known. The template source, if there is
+     * one, reads the group files it holds.
+     */
+    private static PreparedGroup loadGroup(STGroupCache cache,
+                                           URL url,
+                                           String resource,
+                                           ClassLoader scope,
+                                           TemplateSource source) {
+        if (cache != null) {
+            return cache.get(url, resource, scope, source);
+        }
+        else {
+            return new PreparedGroup(urlToSTGroup(url, null, null, source));
+        }
+    }
+
+    /**
+     * URL of the group file of a type, from the {@link GroupIndex index} written at build time if the type is in it,
+     * otherwise looked for on the classpath.
+     */
+    static URL classToUrl(Class c) {
+        final URL indexed = GroupIndex.of(c.getClassLoader()).find(c.getName());
+        return indexed != null ? indexed : c.getResource(groupFileName(c));
+    }
+
+    private static URL requiredGroupFile(final Class sqlObjectType) {
+        final URL url = classToUrl(sqlObjectType);
+        if (url == null) {
+            throw new IllegalArgumentException("no template group file " + classToResource(sqlObjectType)
+                                               + " found for " + sqlObjectType.getName());
+        }
+        return url;
+    }
+
+    /**
+     * Classpath path of the group file of a type, without a leading '/'.
+     */
+    static String classToResource(Class c) {
+        final String pkg = c.getPackage().getName();
+        return pkg.isEmpty() ? groupFileName(c) : pkg.replace('.', '/') + "/" + groupFileName(c);
+    }
+
+    private static String groupFileName(Class c) {
         // handle naming of inner classes as Outer.Inner.sql.stg instead of Outer$Inner.sql.stg
         final String fullName = c.getName();
         final String pkg = c.getPackage().getName();
-        final String className = fullName.substring(pkg.length() + 1, fullName.length()).replace('$', '.');
-        return c.getResource(className + ".sql.stg");
+        final String className = fullName.substring(pkg.isEmpty() ? 0 : pkg.length() + 1).replace('$', '.');
+        return className + ".sql.stg";
     }
 
-    private static STGroup urlToSTGroup(String u) {
-        try {
-            return urlToSTGroup(new URL(u));
-        } catch (MalformedURLException e) {
-            throw new IllegalStateException("a URL failed to roundtrip from a string!", e);
+    /**
+     * Classpath path, without a leading '/', of a path resolved like {@code ST4StatementLocator.class.getResource}.
+     */
+    static String classpathResource(String path) {
+        if (path.startsWith("/")) {
+            return path.substring(1);
         }
+        return ST4StatementLocator.class.getPackage().getName().replace('.', '/') + "/" + path;
     }
 
-    private static STGroup urlToSTGroup(URL u) {
-        return new STGroupFile(u, "UTF-8", '<', '>');
+    /**
+     * Loads the group file at the URL from the bundle compiled for it at build time, if there is one and the group
+     * file is unchanged, otherwise from the group file itself.
+     */
+    static STGroup urlToSTGroup(URL u) {
+        return urlToSTGroup(u, null, null);
+    }
 
+    /**
+     * Loads the group file at the URL like {@link #urlToSTGroup(URL)}, importing the group files it imports from the
+     * cache, if there is one, so they are loaded once and shared by every group importing them.
+     */
+    static STGroup urlToSTGroup(URL u, STGroupCache cache, ClassLoader scope) {
+        return urlToSTGroup(u, cache, scope, null);
+    }
+
+    /**
+     * Loads the group file at the URL like {@link #urlToSTGroup(URL, STGroupCache, ClassLoader)}, reading it, and the
+     * group files it imports from the cache, through the template source, if there is one.
+     */
+    static STGroup urlToSTGroup(URL u, STGroupCache cache, ClassLoader scope, TemplateSource source) {
+        final STGroup bundled = GroupBundle.load(u, cache, scope);
+        if (bundled != null) {
+            return bundled;
+        }
+        if (cache == null && source == null) {
+            return new STGroupFile(u, "UTF-8", '<', '>');
+        }
+        return new SharedImportsGroupFile(u, cache, scope, source);
     }
 }
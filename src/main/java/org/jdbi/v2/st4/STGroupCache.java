@@ -0,0 +1,493 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.stringtemplate.v4.STGroup;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A bounded cache of loaded and compiled template groups, keyed by the URL they were loaded from and the class
+ * loader they were loaded through, which it holds weakly. Failed loads are remembered for a while, backing off.
+ */
+public final class STGroupCache {
+
+    static final long DEFAULT_MAXIMUM_GROUPS = 1000;
+
+    static final long FIRST_RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    static final long MAXIMUM_RETRY_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private static final STGroupCache SHARED = new STGroupCache(DEFAULT_MAXIMUM_GROUPS, null);
+
+    private final BoundedCache<Key, Load> groups;
+    private final Executor loadExecutor;
+    private final ReferenceQueue<ClassLoader> collected = new ReferenceQueue<>();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder sharedImports = new LongAdder();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private STGroupCache(final long maximumGroups, final Executor loadExecutor) {
+        this.groups = BoundedCache.ofSize(maximumGroups);
+        this.loadExecutor = loadExecutor;
+    }
+
+    /**
+     * A new, empty cache which holds at most {@code maximumGroups} template groups.
+     */
+    public static STGroupCache create(final long maximumGroups) {
+        return new STGroupCache(maximumGroups, null);
+    }
+
+    /**
+     * A new, empty cache which holds at most {@code maximumGroups} template groups, and loads them on the given
+     * executor, rather than on the first thread which asks for them.
+     */
+    public static STGroupCache create(final long maximumGroups, final Executor loadExecutor) {
+        return new STGroupCache(maximumGroups, loadExecutor);
+    }
+
+    /**
+     * The cache used by {@link ST4StatementLocator.UseSTGroupCache#YES}.
+     */
+    public static STGroupCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Drops the group loaded from the given URL, through any class loader. Locators which already use it keep
+     * doing so, new locators load it again.
+     */
+    public void invalidate(final URL url) {
+        invalidations.incrementAndGet();
+        final String source = url.toString();
+        for (final Key key : groups.keys()) {
+            if (key.url.equals(source)) {
+                groups.invalidate(key);
+            }
+        }
+    }
+
+    /**
+     * Drops all groups loaded through the given class loader.
+     */
+    public void invalidate(final ClassLoader classLoader) {
+        invalidations.incrementAndGet();
+        for (final Key key : groups.keys()) {
+            if (!key.unscoped && key.get() == classLoader) {
+                groups.invalidate(key);
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        invalidations.incrementAndGet();
+        groups.invalidateAll();
+    }
+
+    /**
+     * Changes whenever groups are invalidated, so what was built from groups of this cache can tell it may be stale.
+     */
+    long generation() {
+        return invalidations.get();
+    }
+
+    /**
+     * Number of groups loaded into this cache.
+     */
+    public long loadCount() {
+        return loads.sum();
+    }
+
+    /**
+     * Total time spent loading groups into this cache.
+     */
+    public long loadTime(final TimeUnit unit) {
+        return unit.convert(loadNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Number of group loads which failed. A failed group is loaded again once its backoff passed.
+     */
+    public long loadFailureCount() {
+        return loadFailures.sum();
+    }
+
+    /**
+     * Number of times a group imported a group file from this cache rather than loading a copy of its own.
+     */
+    public long sharedImportCount() {
+        return sharedImports.sum();
+    }
+
+    public long hitCount() {
+        return groups.hitCount();
+    }
+
+    public long missCount() {
+        return groups.missCount();
+    }
+
+    public long evictionCount() {
+        return groups.evictionCount();
+    }
+
+    public long size() {
+        return groups.size();
+    }
+
+    /**
+     * Loads the template groups of the given sql object types into this cache and compiles all of their templates,
+     * including imported ones, so the first statements after startup do not pay for it. Groups are found the same
+     * way as by {@link UseST4StatementLocator}, honoring its {@code groupFile} if the type is annotated.
+     *
+     * @param executor  runs the loading of each group, pass a thread pool to load groups in parallel
+     * @param dryRender whether to also render every template once, without attributes, to warm up the interpreter
+     * @return what was loaded, how long it took, and any errors ST reported along the way
+     */
+    public PreloadReport preload(final Executor executor, final boolean dryRender, final Class<?>... sqlObjectTypes) {
+        final List<Source> sources = new ArrayList<>();
+        for (final Class<?> type : sqlObjectTypes) {
+            final UseST4StatementLocator an = type.getAnnotation(UseST4StatementLocator.class);
+            if (an != null && !UseST4StatementLocator.USE_SQLOBJECT_TYPE_INDICATOR.equals(an.groupFile())) {
+                sources.add(new Source(type.getName(),
+                                       ST4StatementLocator.class.getResource(an.groupFile()),
+                                       ST4StatementLocator.classpathResource(an.groupFile()),
+                                       ST4StatementLocator.class.getClassLoader(),
+                                       null));
+            }
+            else {
+                sources.add(new Source(type.getName(),
+                                       ST4StatementLocator.classToUrl(type),
+                                       ST4StatementLocator.classToResource(type),
+                                       type.getClassLoader(),
+                                       null));
+            }
+        }
+        return preload(executor, dryRender, sources);
+    }
+
+    /**
+     * Loads the template groups at the given classpath paths into this cache, like
+     * {@link #preload(Executor, boolean, Class[])}.
+     */
+    public PreloadReport preloadFromClasspath(final Executor executor, final boolean dryRender, final String... paths) {
+        final List<Source> sources = new ArrayList<>();
+        for (final String path : paths) {
+            sources.add(new Source(path,
+                                   ST4StatementLocator.class.getResource(path),
+                                   ST4StatementLocator.classpathResource(path),
+                                   ST4StatementLocator.class.getClassLoader(),
+                                   null));
+        }
+        return preload(executor, dryRender, sources);
+    }
+
+    /**
+     * Loads the template groups of every sql object type in the indexes written at build time by
+     * {@link SqlTemplateProcessor} on the classpath of the class loader into this cache, like
+     * {@link #preload(Executor, boolean, Class[])}, without loading the types themselves. The groups are cached for
+     * types loaded by the given class loader.
+     */
+    public PreloadReport preloadIndexed(final Executor executor,
+                                        final boolean dryRender,
+                                        final ClassLoader classLoader) {
+        final List<Source> sources = new ArrayList<>();
+        for (final Map.Entry<String, GroupIndex.Entry> e : GroupIndex.of(classLoader).entries().entrySet()) {
+            sources.add(new Source(e.getKey(), e.getValue().url(), e.getValue().resource(), classLoader, null));
+        }
+        return preload(executor, dryRender, sources);
+    }
+
+    /**
+     * Loads every group file the template source {@link TemplateSource#paths() lists} into this cache, like
+     * {@link #preload(Executor, boolean, Class[])}, such as all group files of a directory tree.
+     */
+    public PreloadReport preload(final Executor executor, final boolean dryRender, final TemplateSource templates) {
+        final List<Source> sources = new ArrayList<>();
+        for (final String path : templates.paths()) {
+            sources.add(new Source(path, templates.find(path), path, null, templates));
+        }
+        return preload(executor, dryRender, sources);
+    }
+
+    PreparedGroup get(final URL url, final ClassLoader scope) {
+        return get(url, null, scope);
+    }
+
+    /**
+     * Returns the cached group for the URL and class loader, loading it if there is none, along with the renderers
+     * generated for the group file at the given classpath path, if it is not null.
+     */
+    PreparedGroup get(final URL url, final String resource, final ClassLoader scope) {
+        return get(url, resource, scope, null);
+    }
+
+    /**
+     * Returns the cached group like {@link #get(URL, String, ClassLoader)}, reading the group files the template
+     * source holds through it, if there is one.
+     */
+    PreparedGroup get(final URL url, final String resource, final ClassLoader scope, final TemplateSource source) {
+        return get(url, scope, (u) -> PreparedGroup.load(u, resource, this, scope, source));
+    }
+
+    /**
+     * Returns the group for the URL to be imported by a group being loaded, from the cache, or loaded into it now,
+     * on this thread. Returns null if the group is being loaded by another thread, or by this one further up, or
+     * failed to load, in which case the importing group imports a copy of its own: waiting could deadlock on groups
+     * which import each other.
+     */
+    PreparedGroup imported(final URL url, final ClassLoader scope, final TemplateSource source) {
+        purgeCollected();
+        final Key key = new Key(url.toString(), scope, collected);
+        Load load = groups.get(key);
+        if (load == null) {
+            final Load mine = new Load(0);
+            load = groups.putIfAbsent(key, mine);
+            if (load == mine) {
+                // not on the load executor, which may be busy with the importing group
+                load(mine, url, (u) -> PreparedGroup.load(u, null, this, scope, source));
+            }
+        }
+        if (!load.group.isDone() || load.group.isCompletedExceptionally()) {
+            return null;
+        }
+        sharedImports.increment();
+        return load.group.join();
+    }
+
+    /**
+     * Returns the cached group for the URL and class loader, loading it with the given function if there is none,
+     * or waiting for it if another thread is loading it already. Throws what loading the group failed with, if it
+     * failed, until the failure's backoff passed.
+     */
+    PreparedGroup get(final URL url, final ClassLoader scope, final Function<URL, PreparedGroup> loader) {
+        purgeCollected();
+        final Key key = new Key(url.toString(), scope, collected);
+        while (true) {
+            final Load cached = groups.get(key);
+            if (cached == null) {
+                final Load load = new Load(0);
+                if (groups.putIfAbsent(key, load) == load) {
+                    start(load, url, loader);
+                    return Futures.join(load.group);
+                }
+            }
+            else if (cached.retryDue()) {
+                final Load load = new Load(cached.failures + 1);
+                if (groups.replace(key, cached, load)) {
+                    start(load, url, loader);
+                    return Futures.join(load.group);
+                }
+            }
+            else {
+                return Futures.join(cached.group);
+            }
+            // another thread got there first, wait for its load instead
+        }
+    }
+
+    private void start(final Load load, final URL url, final Function<URL, PreparedGroup> loader) {
+        if (loadExecutor == null) {
+            load(load, url, loader);
+            return;
+        }
+        try {
+            loadExecutor.execute(() -> load(load, url, loader));
+        }
+        catch (final RuntimeException e) {
+            // such as a rejected execution, remembered like any other failure
+            load.fail(e);
+            loadFailures.increment();
+        }
+    }
+
+    private void load(final Load load, final URL url, final Function<URL, PreparedGroup> loader) {
+        final long start = System.nanoTime();
+        try {
+            load.group.complete(loader.apply(url));
+        }
+        catch (final RuntimeException | Error e) {
+            load.fail(e);
+            loadFailures.increment();
+        }
+        finally {
+            loads.increment();
+            loadNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    private void purgeCollected() {
+        Reference<? extends ClassLoader> ref;
+        while ((ref = collected.poll()) != null) {
+            groups.invalidate((Key) ref);
+        }
+    }
+
+    private PreloadReport preload(final Executor executor, final boolean dryRender, final List<Source> sources) {
+        final long start = System.nanoTime();
+        final List<CompletableFuture<PreloadReport.GroupReport>> loads = new ArrayList<>();
+        for (final Source source : sources) {
+            loads.add(CompletableFuture.supplyAsync(() -> preload(source, dryRender), executor));
+        }
+        final List<PreloadReport.GroupReport> reports = new ArrayList<>();
+        for (final CompletableFuture<PreloadReport.GroupReport> load : loads) {
+            reports.add(load.join());
+        }
+        return new PreloadReport(reports, System.nanoTime() - start);
+    }
+
+    private PreloadReport.GroupReport preload(final Source source, final boolean dryRender) {
+        final CollectingErrorListener listener = new CollectingErrorListener();
+        if (source.url == null) {
+            listener.error("no template group found");
+            return new PreloadReport.GroupReport(source.name, false, 0, 0, 0, listener.stop());
+        }
+
+        final String name = source.name + " " + source.url;
+        final AtomicBoolean loaded = new AtomicBoolean();
+        final long loadStart = System.nanoTime();
+        final PreparedGroup prepared;
+        try {
+            prepared = get(source.url, source.scope, (u) -> {
+                loaded.set(true);
+                final STGroup stg = ST4StatementLocator.urlToSTGroup(u, this, source.scope, source.templates);
+                stg.setListener(listener);
+                return new PreparedGroup(stg, GeneratedGroups.find(source.resource, source.scope, stg)).freeze();
+            });
+        }
+        catch (final RuntimeException e) {
+            listener.error(e.toString());
+            return new PreloadReport.GroupReport(name, false, 0, System.nanoTime() - loadStart, 0, listener.stop());
+        }
+        final long loadNanos = System.nanoTime() - loadStart;
+
+        long renderNanos = 0;
+        if (dryRender) {
+            final long renderStart = System.nanoTime();
+            for (final PreparedTemplate template : prepared.templates()) {
+                try {
+                    template.dryRender(listener);
+                }
+                catch (final IOException | RuntimeException e) {
+                    listener.error(e.toString());
+                }
+            }
+            renderNanos = System.nanoTime() - renderStart;
+        }
+
+        return new PreloadReport.GroupReport(name, !loaded.get(), prepared.templates().size(),
+                                             loadNanos, renderNanos, listener.stop());
+    }
+
+    /**
+     * A group, loaded or being loaded. A failed load is kept until it is due for a retry, so threads asking for the
+     * group in the meantime get the failure instead of loading it again.
+     */
+    private static final class Load {
+        private final CompletableFuture<PreparedGroup> group = new CompletableFuture<>();
+        private final int failures;
+        private volatile long retryAt;
+
+        private Load(final int failures) {
+            this.failures = failures;
+        }
+
+        private void fail(final Throwable e) {
+            final long backoff = Math.min(FIRST_RETRY_NANOS << Math.min(failures, 6), MAXIMUM_RETRY_NANOS);
+            retryAt = System.nanoTime() + backoff;
+            group.completeExceptionally(e);
+        }
+
+        private boolean retryDue() {
+            return group.isCompletedExceptionally() && System.nanoTime() - retryAt >= 0;
+        }
+    }
+
+    private static final class Source {
+        private final String name;
+        private final URL url;
+        private final String resource;
+        private final ClassLoader scope;
+        private final TemplateSource templates;
+
+        private Source(final String name,
+                       final URL url,
+                       final String resource,
+                       final ClassLoader scope,
+                       final TemplateSource templates) {
+            this.name = name;
+            this.url = url;
+            this.resource = resource;
+            this.scope = scope;
+            this.templates = templates;
+        }
+    }
+
+    /**
+     * Holds its class loader weakly, and is enqueued once it is collected. A key without a class loader is
+     * unscoped, and never collected. Keys whose class loader was collected only equal themselves.
+     */
+    private static final class Key extends WeakReference<ClassLoader> {
+        private final String url;
+        private final boolean unscoped;
+        private final int hash;
+
+        private Key(final String url, final ClassLoader scope, final ReferenceQueue<ClassLoader> queue) {
+            super(scope, queue);
+            this.url = url;
+            this.unscoped = scope == null;
+            this.hash = 31 * System.identityHashCode(scope) + url.hashCode();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            if (hash != other.hash || unscoped != other.unscoped || !url.equals(other.url)) {
+                return false;
+            }
+            if (unscoped) {
+                return true;
+            }
+            final ClassLoader loader = get();
+            return loader != null && loader == other.get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
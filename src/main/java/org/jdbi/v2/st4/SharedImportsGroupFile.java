@@ -0,0 +1,138 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.antlr.runtime.ANTLRStringStream;
+import org.antlr.runtime.CommonTokenStream;
+import org.antlr.runtime.RecognitionException;
+import org.antlr.runtime.Token;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.STGroupFile;
+import org.stringtemplate.v4.compiler.GroupLexer;
+import org.stringtemplate.v4.compiler.GroupParser;
+import org.stringtemplate.v4.misc.ErrorType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.CharBuffer;
+
+/**
+ * A group file which imports other group files from a template group cache, so every group importing the same group
+ * file shares one compiled copy of it. Imports the cache cannot hand out right away are imported by ST as usual.
+ */
+class SharedImportsGroupFile extends STGroupFile {
+
+    private static final String GROUP_FILE_EXTENSION = ".stg";
+
+    private final STGroupCache cache;
+    private final ClassLoader scope;
+    private final TemplateSource source;
+
+    SharedImportsGroupFile(final URL url, final STGroupCache cache, final ClassLoader scope) {
+        this(url, cache, scope, null);
+    }
+
+    SharedImportsGroupFile(final URL url,
+                           final STGroupCache cache,
+                           final ClassLoader scope,
+                           final TemplateSource source) {
+        super(url, "UTF-8", '<', '>');
+        this.cache = cache;
+        this.scope = scope;
+        this.source = source;
+    }
+
+    @Override
+    public void loadGroupFile(final String prefix, final String fileName) {
+        if (source == null || !url.toString().equals(fileName)) {
+            super.loadGroupFile(prefix, fileName);
+            return;
+        }
+        try {
+            final CharBuffer text = source.read(url);
+            if (text == null) {
+                super.loadGroupFile(prefix, fileName);
+                return;
+            }
+            final ANTLRStringStream in = text.hasArray() && text.arrayOffset() == 0 && text.position() == 0
+                                         ? new ANTLRStringStream(text.array(), text.limit())
+                                         : new ANTLRStringStream(text.toString());
+            in.name = fileName;
+            new GroupParser(new CommonTokenStream(new GroupLexer(in))).group(this, prefix);
+        }
+        catch (final IOException | RecognitionException e) {
+            errMgr.IOError(null, ErrorType.CANT_LOAD_GROUP_FILE, e, fileName);
+        }
+    }
+
+    @Override
+    public void importTemplates(final Token fileNameToken) {
+        final STGroup shared = sharedImport(fileNameToken.getText());
+        if (shared != null) {
+            importTemplates(shared);
+        }
+        else {
+            super.importTemplates(fileNameToken);
+        }
+    }
+
+    private STGroup sharedImport(final String quotedFileName) {
+        if (cache == null || quotedFileName == null || quotedFileName.length() < 2) {
+            return null;
+        }
+        final String fileName = quotedFileName.substring(1, quotedFileName.length() - 1);
+        if (!fileName.endsWith(GROUP_FILE_EXTENSION)) {
+            return null;
+        }
+        final URL imported = resolve(url, fileName);
+        if (imported == null) {
+            return null;
+        }
+        final PreparedGroup group = cache.imported(imported, scope, source);
+        if (group == null) {
+            return null;
+        }
+        // import the group itself, so what walks the imports sees a group file, as it would without sharing
+        return group.group() instanceof SnapshotGroup ? ((SnapshotGroup) group.group()).original() : group.group();
+    }
+
+    /**
+     * Finds a group file imported by the group file at the URL, or returns null if there is none.
+     */
+    static URL resolve(final URL url, final String fileName) {
+        try {
+            final URL underRoot = new URL(url, fileName);
+            if (exists(underRoot)) {
+                return underRoot;
+            }
+        }
+        catch (final MalformedURLException e) {
+            return null;
+        }
+        final ClassLoader context = Thread.currentThread().getContextClassLoader();
+        final URL onContextClasspath = context == null ? null : context.getResource(fileName);
+        return onContextClasspath != null ? onContextClasspath : STGroup.class.getClassLoader().getResource(fileName);
+    }
+
+    private static boolean exists(final URL url) {
+        try (InputStream in = url.openStream()) {
+            return true;
+        }
+        catch (final IOException e) {
+            return false;
+        }
+    }
+}
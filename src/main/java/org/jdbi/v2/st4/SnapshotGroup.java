@@ -0,0 +1,160 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.stringtemplate.v4.ModelAdaptor;
+import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.compiler.CompiledST;
+import org.stringtemplate.v4.misc.Aggregate;
+import org.stringtemplate.v4.misc.ObjectModelAdaptor;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A read only snapshot of a fully loaded group: every template of the group and the groups it imports, in one
+ * immutable map, looked up without locks. The compiled templates still belong to the original group.
+ */
+final class SnapshotGroup extends STGroup {
+
+    private final STGroup original;
+    private final Map<String, CompiledST> templates;
+    private final Set<String> templateNames;
+    private final boolean defaultAdaptors;
+    private final ModelAdaptor<? super Object> objectAdaptor;
+    private final ModelAdaptor<? super ST> stAdaptor;
+    private final ModelAdaptor<? super Aggregate> aggregateAdaptor;
+    private final ModelAdaptor<? super Map<?, ?>> mapAdaptor;
+    private final ClassValue<ModelAdaptor<?>> adaptors = new ClassValue<ModelAdaptor<?>>() {
+        @Override
+        protected ModelAdaptor<?> computeValue(final Class<?> type) {
+            final ModelAdaptor<?> adaptor = original.getModelAdaptor(type);
+            return isObjectAdaptor(adaptor) ? CompiledModelAdaptor.INSTANCE : adaptor;
+        }
+    };
+
+    private SnapshotGroup(final STGroup original, final Map<String, CompiledST> templates) {
+        super(original.delimiterStartChar, original.delimiterStopChar);
+        this.original = original;
+        this.templates = templates;
+        this.templateNames = Collections.unmodifiableSet(templates.keySet());
+        // no one registers adaptors on the groups this library loads
+        this.defaultAdaptors = original instanceof SharedImportsGroupFile;
+        final ModelAdaptor<? super Object> objectAdaptor = original.getModelAdaptor(Object.class);
+        this.objectAdaptor = isObjectAdaptor(objectAdaptor) ? CompiledModelAdaptor.INSTANCE : objectAdaptor;
+        this.stAdaptor = original.getModelAdaptor(ST.class);
+        this.aggregateAdaptor = original.getModelAdaptor(Aggregate.class);
+        this.mapAdaptor = original.getModelAdaptor(Map.class);
+    }
+
+    /**
+     * Loads the group, and the groups it imports, compiles all their templates, and takes a snapshot of them. The
+     * group must not change afterwards; templates defined later are not seen.
+     */
+    static SnapshotGroup of(final STGroup group) {
+        if (group instanceof SnapshotGroup) {
+            return (SnapshotGroup) group;
+        }
+        final Map<String, CompiledST> templates = new HashMap<>();
+        collect(group, templates, Collections.newSetFromMap(new IdentityHashMap<>()));
+        return new SnapshotGroup(group, Collections.unmodifiableMap(templates));
+    }
+
+    private static void collect(final STGroup group, final Map<String, CompiledST> templates, final Set<STGroup> seen) {
+        if (!seen.add(group)) {
+            return;
+        }
+        group.load();
+        // a group's own templates hide those it imports, earlier imports hide later ones
+        for (final String name : group.getTemplateNames()) {
+            final String qualified = name.startsWith("/") ? name : "/" + name;
+            if (!templates.containsKey(qualified)) {
+                final CompiledST impl = group.lookupTemplate(qualified);
+                if (impl != null) {
+                    templates.put(qualified, impl);
+                }
+            }
+        }
+        final List<STGroup> imports = group.getImportedGroups();
+        if (imports != null) {
+            for (final STGroup imported : imports) {
+                collect(imported, templates, seen);
+            }
+        }
+    }
+
+    /**
+     * The group this is a snapshot of.
+     */
+    STGroup original() {
+        return original;
+    }
+
+    @Override
+    public CompiledST lookupTemplate(final String name) {
+        return templates.get(name.charAt(0) == '/' ? name : "/" + name);
+    }
+
+    @Override
+    public boolean isDefined(final String name) {
+        return lookupTemplate(name) != null;
+    }
+
+    @Override
+    public Set<String> getTemplateNames() {
+        return templateNames;
+    }
+
+    @Override
+    public void load() {
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> ModelAdaptor<? super T> getModelAdaptor(final Class<T> attributeType) {
+        // each adaptor was found for a supertype of the attribute type, as ST's registry finds them
+        if (!defaultAdaptors) {
+            return (ModelAdaptor<? super T>) adaptors.get(attributeType);
+        }
+        if (ST.class.isAssignableFrom(attributeType)) {
+            return (ModelAdaptor<? super T>) stAdaptor;
+        }
+        if (Aggregate.class.isAssignableFrom(attributeType)) {
+            return (ModelAdaptor<? super T>) aggregateAdaptor;
+        }
+        if (Map.class.isAssignableFrom(attributeType)) {
+            return (ModelAdaptor<? super T>) mapAdaptor;
+        }
+        return objectAdaptor;
+    }
+
+    private static boolean isObjectAdaptor(final ModelAdaptor<?> adaptor) {
+        return adaptor != null && adaptor.getClass() == ObjectModelAdaptor.class;
+    }
+
+    @Override
+    public String getName() {
+        return original.getName();
+    }
+
+    @Override
+    public String toString() {
+        return "snapshot of " + original;
+    }
+}
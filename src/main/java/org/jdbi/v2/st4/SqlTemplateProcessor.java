@@ -0,0 +1,369 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.stringtemplate.v4.STErrorListener;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.misc.STMessage;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates {@link GeneratedRenderers} and a {@link GroupBundle} at build time for the group files of types annotated
+ * with {@link UseST4StatementLocator}, and lists in a {@link GroupIndex} every type which has a group file named after
+ * it. Opt-in: name it in {@code <annotationProcessors>} or with {@code -processor}; pass
+ * {@code -Ajdbi.st4.renderers=false}, {@code -Ajdbi.st4.bundles=false} or {@code -Ajdbi.st4.index=false} to turn a
+ * part off. Groups which cannot be found or fail to load are skipped with a note, and rendered by ST.
+ */
+// every type, annotated or not, may have a group file to index; nothing is claimed
+@SupportedAnnotationTypes("*")
+@SupportedOptions({SqlTemplateProcessor.ENABLED_OPTION,
+                   SqlTemplateProcessor.BUNDLES_OPTION,
+                   SqlTemplateProcessor.INDEX_OPTION})
+public class SqlTemplateProcessor extends AbstractProcessor {
+
+    static final String ENABLED_OPTION = "jdbi.st4.renderers";
+    static final String BUNDLES_OPTION = "jdbi.st4.bundles";
+    static final String INDEX_OPTION = "jdbi.st4.index";
+
+    private final Set<String> done = new HashSet<>();
+
+    /**
+     * Group files found for the types of every round, by binary type name, sorted for a stable index.
+     */
+    private final Map<String, String> indexed = new TreeMap<>();
+
+    /**
+     * Renderers generated for group files, as their class name and checksum, by the path of the group file.
+     */
+    private final Map<String, String> generated = new TreeMap<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+        final boolean renderers = !"false".equalsIgnoreCase(processingEnv.getOptions().get(ENABLED_OPTION));
+        final boolean bundles = !"false".equalsIgnoreCase(processingEnv.getOptions().get(BUNDLES_OPTION));
+        final boolean index = !"false".equalsIgnoreCase(processingEnv.getOptions().get(INDEX_OPTION));
+        if (roundEnv.processingOver()) {
+            writeIndex();
+            return false;
+        }
+        if (index) {
+            for (final Element element : roundEnv.getRootElements()) {
+                index(element);
+            }
+        }
+        if (!renderers && !bundles) {
+            return false;
+        }
+        final Map<String, Element> groups = new TreeMap<>();
+        for (final Element element : roundEnv.getElementsAnnotatedWith(UseST4StatementLocator.class)) {
+            if (element instanceof TypeElement) {
+                final String resource = resource((TypeElement) element);
+                if (done.add(resource)) {
+                    groups.put(resource, element);
+                }
+            }
+        }
+        if (groups.isEmpty()) {
+            return false;
+        }
+        final ClassLoader context = Thread.currentThread().getContextClassLoader();
+        // imports are resolved through the context class loader, let them see the class output and source path
+        final URL[] urls = roots();
+        final ClassLoader parent = getClass().getClassLoader();
+        final URLClassLoader roots = AccessController.doPrivileged(
+                (PrivilegedAction<URLClassLoader>) () -> new URLClassLoader(urls, parent));
+        try {
+            Thread.currentThread().setContextClassLoader(roots);
+            for (final Map.Entry<String, Element> group : groups.entrySet()) {
+                generate(group.getKey(), group.getValue(), renderers, bundles);
+            }
+        }
+        finally {
+            Thread.currentThread().setContextClassLoader(context);
+            try {
+                roots.close();
+            }
+            catch (final IOException e) {
+                // nothing was written through it
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lists the group file named after the type, and after each type nested in it, if there is one.
+     */
+    private void index(final Element element) {
+        if (!(element instanceof TypeElement)) {
+            return;
+        }
+        final TypeElement type = (TypeElement) element;
+        final String conventional = conventionalResource(type);
+        // resolved against the root of the index at runtime, so only group files in the class output
+        if (find(conventional, StandardLocation.CLASS_OUTPUT) != null) {
+            indexed.put(processingEnv.getElementUtils().getBinaryName(type).toString(), conventional);
+        }
+        for (final Element enclosed : type.getEnclosedElements()) {
+            index(enclosed);
+        }
+    }
+
+    /**
+     * Writes the group files found for types, and the renderers generated for group files, to the
+     * {@link GroupIndex}. Only the types of this compilation are listed, types compiled separately are looked for on
+     * the classpath at runtime.
+     */
+    private void writeIndex() {
+        if (indexed.isEmpty() && generated.isEmpty()) {
+            return;
+        }
+        try {
+            final FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT,
+                                                                            "",
+                                                                            GroupIndex.RESOURCE);
+            try (Writer out = new OutputStreamWriter(file.openOutputStream(), StandardCharsets.UTF_8)) {
+                out.write("# sql object type=group file, written by " + getClass().getName() + "\n");
+                for (final Map.Entry<String, String> e : indexed.entrySet()) {
+                    out.write(e.getKey() + "=" + e.getValue() + "\n");
+                }
+                for (final Map.Entry<String, String> e : generated.entrySet()) {
+                    out.write(GroupIndex.RENDERERS + e.getKey() + "=" + e.getValue() + "\n");
+                }
+            }
+        }
+        catch (final IOException | RuntimeException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                                                     "could not write " + GroupIndex.RESOURCE + ": " + e);
+        }
+    }
+
+    /**
+     * Classpath path of the group file of an annotated type, without a leading '/', resolved like at runtime.
+     */
+    private String resource(final TypeElement type) {
+        final UseST4StatementLocator an = type.getAnnotation(UseST4StatementLocator.class);
+        if (!UseST4StatementLocator.USE_SQLOBJECT_TYPE_INDICATOR.equals(an.groupFile())) {
+            return ST4StatementLocator.classpathResource(an.groupFile());
+        }
+        return conventionalResource(type);
+    }
+
+    /**
+     * Classpath path of the group file named after a type, like {@link ST4StatementLocator#classToResource(Class)}.
+     */
+    private String conventionalResource(final TypeElement type) {
+        final PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        final String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        final String pkgName = pkg.getQualifiedName().toString();
+        final String className = pkgName.isEmpty() ? binaryName : binaryName.substring(pkgName.length() + 1);
+        return (pkgName.isEmpty() ? "" : pkgName.replace('.', '/') + "/") + className.replace('$', '.') + ".sql.stg";
+    }
+
+    private void generate(final String resource,
+                          final Element element,
+                          final boolean renderers,
+                          final boolean bundles) {
+        try {
+            final URL url = find(resource);
+            if (url == null) {
+                note(element, "no template group " + resource + " found, its templates will be rendered by ST");
+                return;
+            }
+            final GroupBundle.RecordingGroupFile group = new GroupBundle.RecordingGroupFile(url);
+            final AtomicInteger errors = new AtomicInteger();
+            group.setListener(new CountingErrorListener(errors));
+            PreparedGroup.templateNames(group);
+            if (errors.get() > 0) {
+                note(element, "template group " + resource + " has errors, its templates will be rendered by ST");
+                return;
+            }
+            if (bundles) {
+                bundle(resource, group, element);
+            }
+            if (renderers) {
+                renderers(resource, group, element);
+            }
+        }
+        catch (final IOException | RuntimeException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                                                     "could not generate renderers for " + resource + ": " + e,
+                                                     element);
+        }
+    }
+
+    private void bundle(final String resource,
+                        final GroupBundle.RecordingGroupFile group,
+                        final Element element) throws IOException {
+        final int slash = resource.lastIndexOf('/');
+        final String pkg = slash < 0 ? "" : resource.substring(0, slash).replace('/', '.');
+        final String file = resource.substring(slash + 1) + GroupBundle.SUFFIX;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (!GroupBundle.write(group, bytes)) {
+            note(element, "template group " + resource + " cannot be bundled");
+            return;
+        }
+        final FileObject bundle = processingEnv.getFiler()
+                                               .createResource(StandardLocation.CLASS_OUTPUT, pkg, file, element);
+        try (OutputStream out = bundle.openOutputStream()) {
+            bytes.writeTo(out);
+        }
+    }
+
+    private void renderers(final String resource,
+                           final STGroup group,
+                           final Element element) throws IOException {
+        final String className = GeneratedGroups.className(resource);
+        if (!SourceVersion.isName(className)) {
+            note(element, "cannot name a renderer class for " + resource);
+            return;
+        }
+        final String checksum = GeneratedGroups.checksum(group);
+        final String java = checksum == null ? null : new RendererGenerator(group).generate(className, checksum);
+        if (java == null) {
+            note(element, "no templates of " + resource + " can be rendered without ST");
+            return;
+        }
+        generated.put(resource, className + " " + checksum);
+        if (processingEnv.getElementUtils().getTypeElement(className) != null) {
+            // left by an earlier build and compiled again with the sources, javac 8 crashes on writing it twice;
+            // if the group changed since, its checksum no longer matches and ST renders the templates
+            note(element, "renderers for " + resource + " already generated as " + className);
+            return;
+        }
+        final JavaFileObject source = processingEnv.getFiler().createSourceFile(className, element);
+        try (Writer out = source.openWriter()) {
+            out.write(java);
+        }
+    }
+
+    private URL find(final String resource) {
+        return find(resource, StandardLocation.CLASS_OUTPUT, StandardLocation.SOURCE_PATH);
+    }
+
+    private URL find(final String resource, final StandardLocation... locations) {
+        final Filer filer = processingEnv.getFiler();
+        final int slash = resource.lastIndexOf('/');
+        final String pkg = slash < 0 ? "" : resource.substring(0, slash).replace('/', '.');
+        final String file = resource.substring(slash + 1);
+        for (final StandardLocation location : locations) {
+            try {
+                final FileObject object = filer.getResource(location, pkg, file);
+                // getResource does not check that the file exists, opening it does
+                object.openInputStream().close();
+                return object.toUri().toURL();
+            }
+            catch (final IOException | IllegalArgumentException e) {
+                // not in this location
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Root directories of the class output and source path, as far as the filer lets us see them.
+     */
+    private URL[] roots() {
+        // by string, as URLs compare by resolving their host
+        final Set<String> roots = new LinkedHashSet<>();
+        for (final StandardLocation location : new StandardLocation[] {StandardLocation.CLASS_OUTPUT,
+                                                                        StandardLocation.SOURCE_PATH}) {
+            try {
+                final String uri = processingEnv.getFiler().getResource(location, "", "x").toUri().toString();
+                roots.add(uri.substring(0, uri.length() - 1));
+            }
+            catch (final IOException | IllegalArgumentException e) {
+                // no such location
+            }
+        }
+        final List<URL> urls = new ArrayList<>();
+        for (final String root : roots) {
+            try {
+                urls.add(new URL(root));
+            }
+            catch (final MalformedURLException e) {
+                // not a location we can read
+            }
+        }
+        return urls.toArray(new URL[urls.size()]);
+    }
+
+    private void note(final Element element, final String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, message, element);
+    }
+
+    private static final class CountingErrorListener implements STErrorListener {
+        private final AtomicInteger errors;
+
+        private CountingErrorListener(final AtomicInteger errors) {
+            this.errors = errors;
+        }
+
+        @Override
+        public void compileTimeError(final STMessage msg) {
+            errors.incrementAndGet();
+        }
+
+        @Override
+        public void runTimeError(final STMessage msg) {
+            errors.incrementAndGet();
+        }
+
+        @Override
+        public void IOError(final STMessage msg) {
+            errors.incrementAndGet();
+        }
+
+        @Override
+        public void internalError(final STMessage msg) {
+            errors.incrementAndGet();
+        }
+    }
+}
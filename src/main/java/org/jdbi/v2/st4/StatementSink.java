@@ -0,0 +1,175 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+
+/**
+ * A writer which passes what a template renders on to an appendable, or only counts it if there is none, up to the
+ * limit. Failed writes are remembered, as ST would only report them, and {@link #finish()} throws them.
+ */
+final class StatementSink extends BoundedWriter {
+
+    private final Appendable out;
+
+    private long length;
+    private IOException failure;
+
+    StatementSink(final Appendable out, final int maxLength) {
+        this.out = out;
+        limit(maxLength);
+    }
+
+    /**
+     * Returns the number of characters written, or throws the first write failure.
+     */
+    long finish() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        return length;
+    }
+
+    /**
+     * Writes a statement which is not rendered by ST, such as a constant template, as much of it as fits, and throws
+     * {@link StatementTooLongException} if it is longer than the limit.
+     */
+    void writeStatement(final String sql) {
+        try {
+            write(sql);
+        }
+        catch (final StatementTooLongException.Abort e) {
+            throw e.toException();
+        }
+    }
+
+    /**
+     * Counts the characters about to be written, and returns how many of them fit within the limit.
+     */
+    private int admit(final int count) {
+        checkOverflow();
+        final int fits = (int) Math.min(count, maxLength() - length);
+        length += fits;
+        return fits;
+    }
+
+    /**
+     * True if admitted characters should be passed on, unless there is nowhere to pass them or a write failed.
+     */
+    private boolean passOn(final int admitted) {
+        return admitted > 0 && out != null && failure == null;
+    }
+
+    /**
+     * Throws {@link StatementTooLongException.Abort} if only some of the characters were admitted.
+     */
+    private void admitted(final int admitted, final int count) {
+        if (admitted < count) {
+            overflow();
+        }
+    }
+
+    private void failed(final IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    @Override
+    public void write(final int c) {
+        final int admitted = admit(1);
+        if (passOn(admitted)) {
+            try {
+                out.append((char) c);
+            }
+            catch (final IOException e) {
+                failed(e);
+            }
+        }
+        admitted(admitted, 1);
+    }
+
+    @Override
+    public void write(final char[] chars, final int offset, final int count) {
+        final int admitted = admit(count);
+        if (passOn(admitted)) {
+            try {
+                if (out instanceof StringBuilder) {
+                    ((StringBuilder) out).append(chars, offset, admitted);
+                }
+                else if (out instanceof Writer) {
+                    ((Writer) out).write(chars, offset, admitted);
+                }
+                else {
+                    out.append(CharBuffer.wrap(chars, offset, admitted));
+                }
+            }
+            catch (final IOException e) {
+                failed(e);
+            }
+        }
+        admitted(admitted, count);
+    }
+
+    @Override
+    public void write(final String str) {
+        write(str, 0, str.length());
+    }
+
+    @Override
+    public void write(final String str, final int offset, final int count) {
+        final int admitted = admit(count);
+        if (passOn(admitted)) {
+            try {
+                out.append(str, offset, offset + admitted);
+            }
+            catch (final IOException e) {
+                failed(e);
+            }
+        }
+        admitted(admitted, count);
+    }
+
+    @Override
+    public Writer append(final CharSequence csq) {
+        final CharSequence s = csq == null ? "null" : csq;
+        final int admitted = admit(s.length());
+        if (passOn(admitted)) {
+            try {
+                out.append(s, 0, admitted);
+            }
+            catch (final IOException e) {
+                failed(e);
+            }
+        }
+        admitted(admitted, s.length());
+        return this;
+    }
+
+    @Override
+    public Writer append(final char c) {
+        write(c);
+        return this;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
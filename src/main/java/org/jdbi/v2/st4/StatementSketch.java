@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+/**
+ * A HyperLogLog sketch of {@value #REGISTERS} one byte registers, estimating how many distinct statements were added
+ * to it, off by around 6.5%. Updates racing each other may be lost, which can only make the estimate a little low.
+ */
+final class StatementSketch {
+
+    static final int REGISTERS = 1 << 8;
+
+    private static final int INDEX_BITS = 8;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+
+    private final byte[] registers = new byte[REGISTERS];
+
+    /**
+     * Adds a statement, and returns true if that changed the estimate.
+     */
+    boolean add(final String sql) {
+        final long hash = hash(sql);
+        final int index = (int) (hash >>> (Long.SIZE - INDEX_BITS));
+        // the rank of the remaining bits is the position of their first one bit, at most 64 - INDEX_BITS + 1
+        final byte rank = (byte) (Long.numberOfLeadingZeros((hash << INDEX_BITS) | (1L << (INDEX_BITS - 1))) + 1);
+        if (registers[index] >= rank) {
+            return false;
+        }
+        registers[index] = rank;
+        return true;
+    }
+
+    /**
+     * Estimated number of distinct statements added.
+     */
+    long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (final byte rank : registers) {
+            sum += 1.0 / (1L << rank);
+            if (rank == 0) {
+                zeros++;
+            }
+        }
+        final double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+        if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+            // few statements leave registers empty, and counting them is more accurate
+            return Math.round(REGISTERS * Math.log((double) REGISTERS / zeros));
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Hashes the statement to 64 bits with FNV-1a over its chars, spread with the finalizer of MurmurHash3. The 32 bits
+     * of {@link String#hashCode()} collide too often to count millions of statements.
+     */
+    static long hash(final String sql) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < sql.length(); i++) {
+            h ^= sql.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+/**
+ * Thrown when a statement is longer than the {@link ST4StatementLocator#withMaxLength(int) limit} of its locator.
+ * Rendering keeps no more than the limit of the statement in memory, and writes no more than that to a sink.
+ */
+public final class StatementTooLongException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final int maxLength;
+
+    StatementTooLongException(final int maxLength) {
+        super("statement is longer than the limit of " + maxLength + " characters");
+        this.maxLength = maxLength;
+    }
+
+    public int maxLength() {
+        return maxLength;
+    }
+
+    /**
+     * Thrown by a {@link BoundedWriter} on every write once a statement is longer than the limit, to cut rendering
+     * short. Without a stack trace.
+     */
+    static final class Abort extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxLength;
+
+        Abort(final int maxLength) {
+            super("statement is longer than the limit of " + maxLength + " characters", null, false, false);
+            this.maxLength = maxLength;
+        }
+
+        StatementTooLongException toException() {
+            return new StatementTooLongException(maxLength);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Estimates how many distinct statements each template is located as, to find templates which inline values into
+ * their SQL. A template is sketched until its estimate reaches the threshold, and only counted after that.
+ */
+public final class StatementVariety {
+
+    /**
+     * Number of registers of each sketch.
+     */
+    public static final int REGISTERS = StatementSketch.REGISTERS;
+
+    /**
+     * A key to look entries up by, reused by each thread.
+     */
+    private static final ThreadLocal<Key> PROBE = ThreadLocal.withInitial(() -> new Key(null, null));
+
+    private final BoundedCache<Key, Entry> entries;
+    private final long threshold;
+    private final Listener listener;
+
+    private StatementVariety(final long maximumTemplates, final long threshold, final Listener listener) {
+        this.entries = BoundedCache.ofSize(maximumTemplates);
+        this.threshold = threshold;
+        this.listener = listener;
+    }
+
+    /**
+     * Told the first time the estimate of a template reaches the threshold.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        void exceeded(Entry entry);
+    }
+
+    public static StatementVariety create() {
+        return create(Long.MAX_VALUE, (entry) -> { });
+    }
+
+    /**
+     * Tracks up to 10,000 templates, and tells the listener about
+     * those estimated to be located as at least {@code threshold} distinct statements.
+     */
+    public static StatementVariety create(final long threshold, final Listener listener) {
+        return create(TemplateMetrics.DEFAULT_MAXIMUM_TEMPLATES, threshold, listener);
+    }
+
+    public static StatementVariety create(final long maximumTemplates, final long threshold, final Listener listener) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("threshold must be positive: " + threshold);
+        }
+        return new StatementVariety(maximumTemplates, threshold, listener);
+    }
+
+    /**
+     * Tracks a statement located for the named template, or for a sql literal if the name is null.
+     */
+    void record(final String group, final String template, final String sql) {
+        final Key probe = PROBE.get();
+        probe.group = group;
+        probe.template = template;
+        Entry entry = entries.get(probe);
+        if (entry == null) {
+            entry = entries.computeIfAbsent(new Key(group, template), Entry::new);
+        }
+        entry.count.increment();
+        if (entry.exceeded.get()) {
+            return;
+        }
+        if (entry.sketch.add(sql) && entry.estimate() >= threshold && entry.exceeded.compareAndSet(false, true)) {
+            listener.exceeded(entry);
+        }
+    }
+
+    /**
+     * The templates estimated to be located as the most distinct statements, most first.
+     */
+    public List<Entry> topOffenders(final int n) {
+        final List<Entry> all = entries();
+        all.sort(Comparator.comparingLong(Entry::estimate).reversed());
+        return new ArrayList<>(all.subList(0, Math.min(n, all.size())));
+    }
+
+    /**
+     * All templates tracked, in no particular order.
+     */
+    public List<Entry> entries() {
+        return entries.values();
+    }
+
+    public void reset() {
+        entries.invalidateAll();
+    }
+
+    /**
+     * The sketch of one template.
+     */
+    public static final class Entry {
+        private final String group;
+        private final String template;
+        private final StatementSketch sketch = new StatementSketch();
+        private final LongAdder count = new LongAdder();
+        private final AtomicBoolean exceeded = new AtomicBoolean();
+
+        private Entry(final Key key) {
+            this.group = key.group;
+            this.template = key.template;
+        }
+
+        public String group() {
+            return group;
+        }
+
+        /**
+         * The name of the template, or null for the sql literals of the group.
+         */
+        public String template() {
+            return template;
+        }
+
+        /**
+         * Number of statements located.
+         */
+        public long count() {
+            return count.sum();
+        }
+
+        /**
+         * Estimated number of distinct statements located, until the threshold was reached.
+         */
+        public long estimate() {
+            return sketch.estimate();
+        }
+
+        /**
+         * True once the estimate reached the threshold.
+         */
+        public boolean exceeded() {
+            return exceeded.get();
+        }
+
+        @Override
+        public String toString() {
+            return "StatementVariety.Entry{"
+                   + "group=" + group
+                   + ", template=" + (template == null ? "<sql literals>" : template)
+                   + ", count=" + count()
+                   + ", estimate=" + estimate()
+                   + '}';
+        }
+    }
+
+    private static final class Key {
+        private String group;
+        private String template;
+
+        private Key(final String group, final String template) {
+            this.group = group;
+            this.template = template;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return Objects.equals(group, other.group) && Objects.equals(template, other.template);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(group) + Objects.hashCode(template);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link LocateListener} which aggregates timings per template group and template in memory, for at most a given
+ * number of templates, dropping the least recently used ones.
+ */
+public final class TemplateMetrics implements LocateListener {
+
+    static final long DEFAULT_MAXIMUM_TEMPLATES = 10_000;
+
+    private final BoundedCache<Key, Entry> entries;
+
+    private TemplateMetrics(final long maximumTemplates) {
+        this.entries = BoundedCache.ofSize(maximumTemplates);
+    }
+
+    public static TemplateMetrics create() {
+        return create(DEFAULT_MAXIMUM_TEMPLATES);
+    }
+
+    public static TemplateMetrics create(final long maximumTemplates) {
+        return new TemplateMetrics(maximumTemplates);
+    }
+
+    @Override
+    public void located(final LocateEvent event) {
+        entries.computeIfAbsent(new Key(event.group(), event.template()), Entry::new).add(event);
+    }
+
+    /**
+     * The templates with the highest mean time to locate, slowest first.
+     */
+    public List<Entry> slowest(final int n) {
+        final List<Entry> all = entries();
+        all.sort(Comparator.comparingLong(Entry::meanNanos).reversed());
+        return new ArrayList<>(all.subList(0, Math.min(n, all.size())));
+    }
+
+    /**
+     * The templates which rendered to the most distinct statements, most first.
+     */
+    public List<Entry> mostDistinctStatements(final int n) {
+        final List<Entry> all = entries();
+        all.sort(Comparator.comparingLong(Entry::distinctStatementCount).reversed());
+        return new ArrayList<>(all.subList(0, Math.min(n, all.size())));
+    }
+
+    /**
+     * All templates tracked, in no particular order.
+     */
+    public List<Entry> entries() {
+        return entries.values();
+    }
+
+    public void reset() {
+        entries.invalidateAll();
+    }
+
+    /**
+     * Aggregated timings of one template.
+     */
+    public static final class Entry {
+        private final String group;
+        private final String template;
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder groupLookupNanos = new LongAdder();
+        private final LongAdder instanceNanos = new LongAdder();
+        private final LongAdder attributeNanos = new LongAdder();
+        private final LongAdder renderNanos = new LongAdder();
+        private final LongAdder totalLength = new LongAdder();
+        private final LongAdder renders = new LongAdder();
+        private final LongAdder renderCacheHits = new LongAdder();
+        private final LongAdder renderCacheMisses = new LongAdder();
+        private final StatementSketch statements = new StatementSketch();
+
+        private Entry(final Key key) {
+            this.group = key.group;
+            this.template = key.template;
+        }
+
+        private void add(final LocateEvent event) {
+            final long total = event.totalNanos();
+            count.increment();
+            totalNanos.add(total);
+            maxNanos.accumulate(total);
+            groupLookupNanos.add(event.groupLookupNanos);
+            instanceNanos.add(event.instanceNanos);
+            attributeNanos.add(event.attributeNanos);
+            renderNanos.add(event.renderNanos);
+            totalLength.add(event.length);
+            if (event.outcome == LocateEvent.Outcome.RENDERED) {
+                renders.increment();
+            }
+            if (event.renderCache == LocateEvent.RenderCacheResult.HIT) {
+                renderCacheHits.increment();
+            }
+            else if (event.renderCache == LocateEvent.RenderCacheResult.MISS) {
+                renderCacheMisses.increment();
+            }
+            if (event.statement != null) {
+                statements.add(event.statement);
+            }
+        }
+
+        public String group() {
+            return group;
+        }
+
+        public String template() {
+            return template;
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        /**
+         * Number of times the template was rendered by ST, rather than answered without rendering.
+         */
+        public long renderCount() {
+            return renders.sum();
+        }
+
+        public long totalTime(final TimeUnit unit) {
+            return unit.convert(totalNanos.sum(), TimeUnit.NANOSECONDS);
+        }
+
+        public long meanTime(final TimeUnit unit) {
+            return unit.convert(meanNanos(), TimeUnit.NANOSECONDS);
+        }
+
+        public long maxTime(final TimeUnit unit) {
+            return unit.convert(maxNanos.get(), TimeUnit.NANOSECONDS);
+        }
+
+        public long groupLookupTime(final TimeUnit unit) {
+            return unit.convert(groupLookupNanos.sum(), TimeUnit.NANOSECONDS);
+        }
+
+        public long instanceTime(final TimeUnit unit) {
+            return unit.convert(instanceNanos.sum(), TimeUnit.NANOSECONDS);
+        }
+
+        public long attributeTime(final TimeUnit unit) {
+            return unit.convert(attributeNanos.sum(), TimeUnit.NANOSECONDS);
+        }
+
+        public long renderTime(final TimeUnit unit) {
+            return unit.convert(renderNanos.sum(), TimeUnit.NANOSECONDS);
+        }
+
+        public long meanLength() {
+            final long n = count.sum();
+            return n == 0 ? 0 : totalLength.sum() / n;
+        }
+
+        public long renderCacheHitCount() {
+            return renderCacheHits.sum();
+        }
+
+        public long renderCacheMissCount() {
+            return renderCacheMisses.sum();
+        }
+
+        /**
+         * Estimated number of distinct statements the template was located as, like
+         * {@link StatementVariety.Entry#estimate()}. Statements written to a sink are not counted.
+         */
+        public long distinctStatementCount() {
+            return statements.estimate();
+        }
+
+        private long meanNanos() {
+            final long n = count.sum();
+            return n == 0 ? 0 : totalNanos.sum() / n;
+        }
+
+        @Override
+        public String toString() {
+            return "TemplateMetrics.Entry{"
+                   + "group=" + group
+                   + ", template=" + template
+                   + ", count=" + count()
+                   + ", meanMicros=" + meanTime(TimeUnit.MICROSECONDS)
+                   + ", maxMicros=" + maxTime(TimeUnit.MICROSECONDS)
+                   + ", meanLength=" + meanLength()
+                   + ", distinctStatements=" + distinctStatementCount()
+                   + '}';
+        }
+    }
+
+    /**
+     * A template, or, without a name, the sql literals, of a group.
+     */
+    static final class Key {
+        final String group;
+        final String template;
+
+        Key(final String group, final String template) {
+            this.group = group;
+            this.template = template;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return Objects.equals(group, other.group) && Objects.equals(template, other.template);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(group) + Objects.hashCode(template);
+        }
+    }
+}
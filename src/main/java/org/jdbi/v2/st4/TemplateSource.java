@@ -0,0 +1,84 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.CharBuffer;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Where group files come from, found by their path relative to the root of the source, and optionally read by it.
+ * Groups are cached by their URL, so different group files, and different sources, must have different URLs.
+ *
+ * @see ST4StatementLocator#fromSource(STGroupCache, TemplateSource, String)
+ * @see ST4StatementLocator#perType(STGroupCache, TemplateSource, ST4StatementLocator)
+ * @see STGroupCache#preload(java.util.concurrent.Executor, boolean, TemplateSource)
+ */
+public interface TemplateSource {
+
+    /**
+     * Finds the group file at the path, relative to the root of this source.
+     *
+     * @return the URL of the group file, or null if this source has none at the path
+     */
+    URL find(String path);
+
+    /**
+     * Reads the text of a group file found by this source, or imported by one.
+     *
+     * @return the text, or null to have it read from the URL as usual
+     */
+    default CharBuffer read(URL url) throws IOException {
+        return null;
+    }
+
+    /**
+     * Paths of all group files this source holds, or an empty collection if it cannot list them.
+     */
+    default Collection<String> paths() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Group files on the classpath of the class loader which loaded this library.
+     */
+    static TemplateSource classpath() {
+        return classpath(ST4StatementLocator.class.getClassLoader());
+    }
+
+    /**
+     * Group files on the classpath of the class loader, read from their URL.
+     */
+    static TemplateSource classpath(final ClassLoader classLoader) {
+        return new ClasspathTemplateSource(classLoader);
+    }
+
+    /**
+     * Every {@code .stg} file in the directory tree, found in one walk of the tree when the source is created.
+     */
+    static TemplateSource directory(final Path root) throws IOException {
+        return new DirectoryTemplateSource(root);
+    }
+
+    /**
+     * Group files held in memory, by path, such as for tests. The map is copied.
+     */
+    static TemplateSource inMemory(final Map<String, String> groups) {
+        return new InMemoryTemplateSource(groups);
+    }
+}
@@ -23,7 +23,12 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
 import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Use StringTemplate 4 to load a stringtemplate group containing named templates for each sql statement.
@@ -54,8 +59,26 @@ public @interface UseST4StatementLocator {
      */
     boolean useTemplateGroupCache() default true;
 
+    /**
+     * Set to false to render statements without ST's auto indenting writer, copying template text as is.
+     *
+     * @see ST4StatementLocator#withAutoIndent(boolean)
+     */
+    boolean autoIndent() default true;
+
     class LocatorFactory implements SqlStatementCustomizerFactory {
 
+        /**
+         * Customizers already made, softly, per sql object type and annotation settings.
+         */
+        private static final ClassValue<ConcurrentMap<String, SoftReference<Made>>> MADE =
+            new ClassValue<ConcurrentMap<String, SoftReference<Made>>>() {
+                @Override
+                protected ConcurrentMap<String, SoftReference<Made>> computeValue(final Class<?> type) {
+                    return new ConcurrentHashMap<>();
+                }
+            };
+
         @Override
         public SqlStatementCustomizer createForMethod(final Annotation annotation,
                                                       final Class sqlObjectType,
@@ -68,21 +91,52 @@ public @interface UseST4StatementLocator {
             return make((UseST4StatementLocator) annotation, sqlObjectType);
         }
 
+        /**
+         * Makes the customizer for the annotation on the type, once, as long as its group comes from the shared
+         * template group cache and was not invalidated since.
+         */
         private static SqlStatementCustomizer make(final UseST4StatementLocator an, final Class sqlObjectType) {
-            final StatementLocator locator;
+            if (!USE_SQLOBJECT_TYPE_INDICATOR.equals(an.groupFile()) && !an.useTemplateGroupCache()) {
+                return create(an, sqlObjectType);
+            }
+            final long generation = STGroupCache.shared().generation();
+            final ConcurrentMap<String, SoftReference<Made>> made = MADE.get(sqlObjectType);
+            final String key = an.groupFile() + '\0' + an.useTemplateGroupCache() + '\0' + an.autoIndent();
+            final SoftReference<Made> ref = made.get(key);
+            Made m = ref == null ? null : ref.get();
+            if (m == null || m.generation != generation) {
+                if (m == null && ref != null) {
+                    // collected, and so may be the customizers for other keys
+                    made.values().removeIf((r) -> r.get() == null);
+                }
+                m = new Made(create(an, sqlObjectType), generation);
+                made.put(key, new SoftReference<>(m));
+            }
+            return m.customizer;
+        }
+
+        /**
+         * References to the customizers made for the type, by annotation settings.
+         */
+        static Map<String, ? extends Reference<?>> made(final Class<?> sqlObjectType) {
+            return MADE.get(sqlObjectType);
+        }
+
+        private static SqlStatementCustomizer create(final UseST4StatementLocator an, final Class sqlObjectType) {
+            final ST4StatementLocator locator;
             if (USE_SQLOBJECT_TYPE_INDICATOR.equals(an.groupFile())) {
-                locator = ST4StatementLocator.forType(sqlObjectType);
+                locator = ST4StatementLocator.typeLocator(ST4StatementLocator.UseSTGroupCache.YES, sqlObjectType);
             }
             else {
                 final ST4StatementLocator.UseSTGroupCache useCache = an.useTemplateGroupCache()
                                                                      ? ST4StatementLocator.UseSTGroupCache.YES
                                                                      : ST4StatementLocator.UseSTGroupCache.NO;
 
-                locator = ST4StatementLocator.fromClasspath(useCache,
-                                                            an.groupFile());
+                locator = ST4StatementLocator.classpathLocator(useCache, an.groupFile());
             }
 
-            return q -> q.setStatementLocator(locator);
+            final StatementLocator configured = an.autoIndent() ? locator : locator.withAutoIndent(false);
+            return q -> q.setStatementLocator(configured);
         }
 
         @Override
@@ -92,5 +146,15 @@ public @interface UseST4StatementLocator {
                                                          final Object arg) {
             throw new UnsupportedOperationException("Annotation cannot be applied to parameter");
         }
+
+        private static final class Made {
+            private final SqlStatementCustomizer customizer;
+            private final long generation;
+
+            private Made(final SqlStatementCustomizer customizer, final long generation) {
+                this.customizer = customizer;
+                this.generation = generation;
+            }
+        }
     }
 }
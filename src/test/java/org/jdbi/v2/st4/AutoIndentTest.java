@@ -0,0 +1,68 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.skife.jdbi.v2.StatementContext;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.STGroupString;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AutoIndentTest {
+
+    private final STGroup group = new STGroupString("q(columns) ::= <<select\n"
+                                                    + "    <columns; separator=\",\\n\">\n"
+                                                    + "from t>>\n");
+
+    @Test
+    public void testAutoIndentByDefault() throws Exception {
+        final ST4StatementLocator sl = new ST4StatementLocator(group);
+
+        assertThat(sl.locate("q", ctx())).isEqualTo(String.format("select%n    a,%n    b%nfrom t"));
+    }
+
+    @Test
+    public void testWithoutAutoIndent() throws Exception {
+        final ST4StatementLocator sl = new ST4StatementLocator(group).withAutoIndent(false);
+
+        assertThat(sl.locate("q", ctx())).isEqualTo("select\na,\nb\nfrom t");
+    }
+
+    @Test
+    public void testReusedBufferHoldsOnlyTheCurrentStatement() throws Exception {
+        final StringBuilder big = new StringBuilder();
+        for (int i = 0; i < RenderBuffer.MAX_RETAINED_CAPACITY; i++) {
+            big.append('x');
+        }
+        final ST4StatementLocator sl = new ST4StatementLocator(group);
+
+        final String first = sl.locate("q", ctx(big.toString(), "y"));
+        assertThat(first).hasSize(big.length() + String.format("select%n    ,%n    y%nfrom t").length());
+        assertThat(sl.locate("q", ctx())).isEqualTo(String.format("select%n    a,%n    b%nfrom t"));
+    }
+
+    private static StatementContext ctx(final String... columns) {
+        final StatementContext ctx = Mockito.mock(StatementContext.class);
+        Mockito.when(ctx.getAttributes())
+               .thenReturn(Collections.singletonMap("columns", Arrays.asList(columns.length == 0
+                                                                            ? new String[]{"a", "b"}
+                                                                            : columns)));
+        return ctx;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BoundedCacheTest {
+
+    @Test
+    public void testEvictsPastMaximumSize() throws Exception {
+        final BoundedCache<Integer, String> cache = BoundedCache.ofSize(10);
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, "v" + i);
+        }
+        assertThat(cache.size()).isEqualTo(10);
+        assertThat(cache.weight()).isEqualTo(10);
+        assertThat(cache.evictionCount()).isEqualTo(90);
+    }
+
+    @Test
+    public void testReplacedValuesDoNotCountTowardsTheBound() throws Exception {
+        final BoundedCache<Integer, String> cache = BoundedCache.ofSize(10);
+        for (int i = 0; i < 100_000; i++) {
+            cache.put(i % 5, "v" + i);
+        }
+        assertThat(cache.replace(0, cache.get(0), "replaced")).isTrue();
+        assertThat(cache.size()).isEqualTo(5);
+        assertThat(cache.weight()).isEqualTo(5);
+        assertThat(cache.evictionCount()).isZero();
+
+        for (int i = 5; i < 15; i++) {
+            cache.put(i, "v" + i);
+        }
+        assertThat(cache.size()).isEqualTo(10);
+        assertThat(cache.weight()).isEqualTo(10);
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        final BoundedCache<Integer, String> cache = BoundedCache.ofSize(1_000_000);
+        for (int i = 0; i < 200_000; i++) {
+            cache.put(i, "v" + i);
+        }
+        cache.invalidate(7);
+        assertThat(cache.get(7)).isNull();
+        assertThat(cache.weight()).isEqualTo(199_999);
+
+        cache.invalidateAll();
+        assertThat(cache.size()).isZero();
+        assertThat(cache.weight()).isZero();
+
+        cache.put(1, "again");
+        assertThat(cache.get(1)).isEqualTo("again");
+    }
+}
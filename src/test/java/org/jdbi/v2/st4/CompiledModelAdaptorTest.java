@@ -0,0 +1,109 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.skife.jdbi.v2.StatementContext;
+import org.stringtemplate.v4.ModelAdaptor;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.STGroupString;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompiledModelAdaptorTest {
+
+    private static final String GROUP = "q(user) ::= <<select <user.id>, <user.name>, <user.active>, <user.email>, "
+                                        + "<user.missing> from <user.settings.table> where x = <user.broken> >>\n";
+
+    private final StatementContext ctx = Mockito.mock(StatementContext.class);
+
+    @Test
+    public void testReadsPropertiesLikeST() throws Exception {
+        final Map<String, Object> settings = new HashMap<>();
+        settings.put("table", "users");
+        Mockito.when(ctx.getAttributes()).thenReturn(Collections.singletonMap("user", new User(settings)));
+
+        final String st = new ST4StatementLocator(new STGroupString(GROUP)).locate("q", ctx);
+        final String compiled = ST4StatementLocator.snapshotOf(new STGroupString(GROUP)).locate("q", ctx);
+
+        assertThat(compiled).isEqualTo(st).isEqualTo("select 7, Jan, true, jan@example.com,  from users where x =  ");
+    }
+
+    @Test
+    public void testAccessorsWhichThrowAreNotCalledAgain() throws Exception {
+        final User user = new User(Collections.emptyMap());
+        final STGroup group = new STGroupString("q(user) ::= <<x = <user.broken> >>\n");
+        Mockito.when(ctx.getAttributes()).thenReturn(Collections.singletonMap("user", user));
+
+        assertThat(ST4StatementLocator.snapshotOf(group).locate("q", ctx)).isEqualTo("x =  ");
+        assertThat(user.brokenCalls).isEqualTo(1);
+    }
+
+    @Test
+    public void testOnlyReplacesSTsObjectAdaptor() throws Exception {
+        final STGroup group = new STGroupString(GROUP);
+        final ModelAdaptor<User> custom = (interp, self, o, property, propertyName) -> "custom";
+        group.registerModelAdaptor(User.class, custom);
+        final SnapshotGroup snapshot = SnapshotGroup.of(group);
+
+        assertThat(snapshot.getModelAdaptor(User.class)).isSameAs(custom);
+        assertThat(snapshot.getModelAdaptor(Object.class)).isInstanceOf(CompiledModelAdaptor.class);
+        assertThat(snapshot.getModelAdaptor(HashMap.class)).isSameAs(group.getModelAdaptor(HashMap.class));
+    }
+
+    @Test
+    public void testAccessorsAreMadeOnce() throws Exception {
+        assertThat(CompiledModelAdaptor.accessor(User.class, "name"))
+            .isSameAs(CompiledModelAdaptor.accessor(User.class, "name"));
+    }
+
+    /**
+     * Not public, its getters are still read, as by ST.
+     */
+    private static final class User {
+        public final String email = "jan@example.com";
+        private final Map<String, Object> settings;
+        private int brokenCalls;
+
+        private User(final Map<String, Object> settings) {
+            this.settings = settings;
+        }
+
+        public int getId() {
+            return 7;
+        }
+
+        public String getName() {
+            return "Jan";
+        }
+
+        public boolean isActive() {
+            return true;
+        }
+
+        public Map<String, Object> getSettings() {
+            return settings;
+        }
+
+        public String getBroken() {
+            brokenCalls++;
+            throw new IllegalStateException("broken");
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.skife.jdbi.v2.StatementContext;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.STGroupString;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConstantTemplateTest {
+
+    private final STGroup group = new STGroupString("constant() ::= <<select 1\n  from dual>>\n"
+                                                    + "dynamic(table) ::= <%select 1 from <table>%>\n");
+
+    @Test
+    public void testConstantTemplatesSkipRendering() throws Exception {
+        final ST4StatementLocator sl = new ST4StatementLocator(group);
+        final StatementContext ctx = ctx();
+
+        assertThat(sl.locate("constant", ctx)).isEqualTo("select 1\n  from dual");
+        assertThat(sl.locate("constant", ctx)).isEqualTo("select 1\n  from dual");
+        assertThat(sl.locate("dynamic", ctx)).isEqualTo("select 1 from dual");
+
+        assertThat(sl.getStats().locateCount()).isEqualTo(3);
+        assertThat(sl.getStats().constantTemplateCount()).isEqualTo(2);
+        assertThat(sl.getStats().renderedTemplateCount()).isEqualTo(1);
+        Mockito.verify(ctx, Mockito.times(1)).getAttributes();
+    }
+
+    @Test
+    public void testConstantTemplatesCanBeDisabled() throws Exception {
+        final ST4StatementLocator sl = new ST4StatementLocator(group).withConstantTemplates(false);
+
+        assertThat(sl.locate("constant", ctx())).isEqualTo("select 1\n  from dual");
+
+        assertThat(sl.getStats().constantTemplateCount()).isEqualTo(0);
+        assertThat(sl.getStats().renderedTemplateCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testTemplatesFromImportsAreConstant() throws Exception {
+        final ST4StatementLocator sl = ST4StatementLocator.forType(STGroupCache.shared(), OuterDao.class);
+
+        assertThat(sl.locate("something_fields", ctx())).isEqualTo("id, name");
+        assertThat(sl.getStats().constantTemplateCount()).isEqualTo(1);
+    }
+
+    private static StatementContext ctx() {
+        final StatementContext ctx = Mockito.mock(StatementContext.class);
+        Mockito.when(ctx.getAttributes()).thenReturn(Collections.singletonMap("table", "dual"));
+        return ctx;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.skife.jdbi.v2.StatementContext;
+import org.skife.jdbi.v2.sqlobject.SqlQuery;
+import org.stringtemplate.v4.STGroupString;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GeneratedRendererTest {
+
+    private final STGroupCache cache = STGroupCache.create(10);
+    private final ST4StatementLocator generated = ST4StatementLocator.forType(cache, Dao.class)
+                                                                     .withConstantTemplates(false);
+    private final ST4StatementLocator st = ST4StatementLocator.forType(cache, Dao.class)
+                                                              .withConstantTemplates(false)
+                                                              .withGeneratedRenderers(false);
+
+    @Test
+    public void testRendersLikeST() throws Exception {
+        assertSame("columns", "columns", Arrays.asList("id", "name"));
+        assertSame("columns", "columns", new String[]{"id", null, "name"});
+        assertSame("filtered", "id", 1);
+        assertSame("filtered", "id", false, "name", "Jan");
+        assertSame("filtered", "name", "");
+        assertSame("filtered");
+        assertSame("negated", "all", false, "id", 1);
+        assertSame("negated", "all", true, "id", 1);
+        assertSame("negated", "all", Collections.emptyList(), "id", Collections.singletonList(1));
+        assertSame("negated", "all", iterable(), "id", iterable(1));
+        assertSame("multiline", "columns", Arrays.asList("id", "name"));
+        assertSame("called", "id", 1);
+        assertSame("called");
+
+        // each with and without auto indentation
+        assertThat(generated.getStats().generatedRenderCount()).isEqualTo(26);
+        assertThat(st.getStats().generatedRenderCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testUnsupportedTemplatesAreRenderedByST() throws Exception {
+        assertSame("anonymous", "columns", Arrays.asList("id", "name"));
+
+        assertThat(generated.getStats().renderedTemplateCount()).isEqualTo(2);
+        assertThat(generated.getStats().generatedRenderCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testUnsupportedValuesAreRenderedByST() throws Exception {
+        assertSame("columns", "columns", Collections.singletonMap("id", "name"));
+
+        assertThat(generated.getStats().generatedRenderCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testGeneratedForSupportedTemplates() throws Exception {
+        final String resource = ST4StatementLocator.classToResource(Dao.class);
+        final GeneratedRenderers renderers = GeneratedGroups.find(resource,
+                                                                  Dao.class.getClassLoader(),
+                                                                  ST4StatementLocator.urlToSTGroup(
+                                                                      ST4StatementLocator.classToUrl(Dao.class)));
+
+        assertThat(renderers).isNotNull();
+        assertThat(renderers.templateNames())
+            .containsOnly("columns", "filtered", "negated", "multiline", "called", "fields");
+    }
+
+    @Test
+    public void testChangedGroupIsNotRenderedByGeneratedCode() throws Exception {
+        final String resource = ST4StatementLocator.classToResource(Dao.class);
+
+        assertThat(GeneratedGroups.find(resource,
+                                        Dao.class.getClassLoader(),
+                                        new STGroupString("columns(columns) ::= <<changed>>"))).isNull();
+    }
+
+    @Test
+    public void testClassName() throws Exception {
+        assertThat(GeneratedGroups.className("/org/jdbi/v2/st4/GeneratedRendererTest.Dao.sql.stg"))
+            .isEqualTo("org.jdbi.v2.st4.GeneratedRendererTest_Dao_sql_stg_SqlRenderers");
+        assertThat(GeneratedGroups.className("sql/1-all.stg")).isEqualTo("sql._1_all_stg_SqlRenderers");
+    }
+
+    /**
+     * An iterable which is not a collection.
+     */
+    private static Iterable<Object> iterable(final Object... values) {
+        return () -> Arrays.asList(values).iterator();
+    }
+
+    private void assertSame(final String name, final Object... attributes) throws Exception {
+        final StatementContext ctx = Mockito.mock(StatementContext.class);
+        final Map<String, Object> map = new HashMap<>();
+        for (int i = 0; i < attributes.length; i += 2) {
+            map.put((String) attributes[i], attributes[i + 1]);
+        }
+        Mockito.when(ctx.getAttributes()).thenReturn(map);
+
+        assertThat(generated.locate(name, ctx)).isEqualTo(st.locate(name, ctx));
+        assertThat(generated.withAutoIndent(false).locate(name, ctx))
+            .isEqualTo(st.withAutoIndent(false).locate(name, ctx));
+    }
+
+    @UseST4StatementLocator
+    public interface Dao {
+        @SqlQuery
+        String columns();
+    }
+}
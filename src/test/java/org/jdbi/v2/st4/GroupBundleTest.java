@@ -0,0 +1,167 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.skife.jdbi.v2.StatementContext;
+import org.stringtemplate.v4.STGroupFile;
+
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GroupBundleTest {
+
+    private static final String GROUP = "import \"lib/shared.stg\"\n"
+                                        + "\n"
+                                        + "find(columns, id) ::= <<\n"
+                                        + "select <columns:{c | x.<c>}; separator=\", \">\n"
+                                        + "from something x<if(id)> where id = :id<endif>\n"
+                                        + ">>\n"
+                                        + "\n"
+                                        + "fields() ::= <<select <something_fields()> from something>>\n";
+
+    private static final String FEATURES = "types ::= [\"int\":\"INTEGER\", \"echo\":key, \"yes\":true, \"none\":[],\n"
+                                           + "          \"tpl\":{t-<x>}, default:\"VARCHAR\"]\n"
+                                           + "\n"
+                                           + "dict(x) ::= <<\n"
+                                           + "<types.int> <types.echo> <types.other> <if(types.yes)>y<endif><types.none> <types.tpl>\n"
+                                           + ">>\n"
+                                           + "\n"
+                                           + "defaults(a=\"A\", b={(<a>)}, c=true) ::= <<\n"
+                                           + "<a> <b> <if(c)>yes<endif>\n"
+                                           + ">>\n"
+                                           + "\n"
+                                           + "callDefaults() ::= <<<defaults(a=\"Z\")>|<defaults()>\n"
+                                           + ">>\n"
+                                           + "\n"
+                                           + "aliased ::= callDefaults\n"
+                                           + "\n"
+                                           + "embedded() ::= <<a <@r>inside<@end> b>>\n"
+                                           + "\n"
+                                           + "wrap() ::= <<[<@body()>]>>\n"
+                                           + "\n"
+                                           + "@wrap.body() ::= <<filled>>\n";
+
+    private final StatementContext ctx = Mockito.mock(StatementContext.class);
+
+    @Test
+    public void testBundledByProcessor() throws Exception {
+        final URL url = ST4StatementLocator.classToUrl(OuterDao.class);
+
+        assertThat(new URL(url + GroupBundle.SUFFIX).openStream()).isNotNull();
+        assertThat(ST4StatementLocator.urlToSTGroup(url).getClass()).isNotEqualTo(STGroupFile.class);
+        assertThat(ST4StatementLocator.forURL(STGroupCache.create(10), url).locate("findById2", ctx))
+            .isEqualTo("select id, name from something where id = :id");
+    }
+
+    @Test
+    public void testRendersLikeGroupFile() throws Exception {
+        final URL url = bundled(GROUP);
+        Mockito.when(ctx.getAttributes())
+               .thenReturn(Collections.singletonMap("columns", Arrays.asList("id", "name")));
+
+        assertThat(ST4StatementLocator.urlToSTGroup(url).getClass()).isNotEqualTo(STGroupFile.class);
+        final ST4StatementLocator bundled = new ST4StatementLocator(ST4StatementLocator.urlToSTGroup(url));
+        final ST4StatementLocator parsed = new ST4StatementLocator(new STGroupFile(url, "UTF-8", '<', '>'));
+        for (final String name : Arrays.asList("find", "fields", "fancy")) {
+            assertThat(bundled.locate(name, ctx)).isEqualTo(parsed.locate(name, ctx));
+        }
+        assertThat(bundled.locate("fields", ctx)).isEqualTo("select id, name from something");
+    }
+
+    @Test
+    public void testBundlesDictionariesRegionsDefaultsAndAliases() throws Exception {
+        final URL url = bundled(FEATURES);
+        Mockito.when(ctx.getAttributes()).thenReturn(Collections.singletonMap("x", "X"));
+
+        assertThat(ST4StatementLocator.urlToSTGroup(url).getClass()).isNotEqualTo(STGroupFile.class);
+        final ST4StatementLocator bundled = new ST4StatementLocator(ST4StatementLocator.urlToSTGroup(url));
+        final ST4StatementLocator parsed = new ST4StatementLocator(new STGroupFile(url, "UTF-8", '<', '>'));
+        for (final String name : Arrays.asList("dict", "callDefaults", "aliased", "embedded", "wrap")) {
+            assertThat(bundled.locate(name, ctx)).isEqualTo(parsed.locate(name, ctx));
+        }
+        assertThat(bundled.locate("dict", ctx)).isEqualTo("INTEGER echo VARCHAR y t-X");
+        assertThat(bundled.locate("aliased", ctx)).isEqualTo("Z (Z) yes|A (A) yes");
+        assertThat(bundled.locate("embedded", ctx)).isEqualTo("a inside b");
+        assertThat(bundled.locate("wrap", ctx)).isEqualTo("[filled]");
+    }
+
+    @Test
+    public void testGroupFileChangedAtTheSameSizeIsParsed() throws Exception {
+        final URL url = bundled(GROUP);
+        Files.write(Paths.get(url.toURI()),
+                    GROUP.replace("fields() ::=", "fieldz() ::=").getBytes(StandardCharsets.UTF_8));
+
+        assertThat(ST4StatementLocator.urlToSTGroup(url).getClass()).isEqualTo(STGroupFile.class);
+        assertThat(ST4StatementLocator.forURL(STGroupCache.create(10), url).locate("fieldz", ctx))
+            .isEqualTo("select id, name from something");
+    }
+
+    @Test
+    public void testChangedImportIsParsed() throws Exception {
+        final Path dir = Files.createTempDirectory("test");
+        final Path imported = dir.resolve("imported.stg");
+        Files.write(imported, "shared() ::= <<a>>\n".getBytes(StandardCharsets.UTF_8));
+        final URL url = bundled(dir.resolve("group.stg"), "import \"imported.stg\"\n\nq() ::= <<<shared()>>>\n");
+
+        assertThat(ST4StatementLocator.urlToSTGroup(url).getClass()).isNotEqualTo(STGroupFile.class);
+        Files.write(imported, "shared() ::= <<b>>\n".getBytes(StandardCharsets.UTF_8));
+        assertThat(ST4StatementLocator.urlToSTGroup(url).getClass()).isEqualTo(STGroupFile.class);
+    }
+
+    @Test
+    public void testBundleOfOtherFormatIsParsed() throws Exception {
+        final URL url = bundled(GROUP);
+        final Path bundle = Paths.get(url.toURI().getPath() + GroupBundle.SUFFIX);
+        final byte[] bytes = Files.readAllBytes(bundle);
+        // the format follows magic number and version
+        bytes[8] ^= 1;
+        Files.write(bundle, bytes);
+
+        assertThat(ST4StatementLocator.urlToSTGroup(url).getClass()).isEqualTo(STGroupFile.class);
+    }
+
+    @Test
+    public void testChangedGroupFileIsParsed() throws Exception {
+        final URL url = bundled(GROUP);
+        Files.write(Paths.get(url.toURI()), "fields() ::= <<changed>>".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(ST4StatementLocator.urlToSTGroup(url).getClass()).isEqualTo(STGroupFile.class);
+        assertThat(ST4StatementLocator.forURL(STGroupCache.create(10), url).locate("fields", ctx))
+            .isEqualTo("changed");
+    }
+
+    private static URL bundled(final String text) throws Exception {
+        return bundled(Files.createTempFile("test", ".stg"), text);
+    }
+
+    private static URL bundled(final Path tmp, final String text) throws Exception {
+        Files.write(tmp, text.getBytes(StandardCharsets.UTF_8));
+        final GroupBundle.RecordingGroupFile group = new GroupBundle.RecordingGroupFile(tmp.toUri().toURL());
+        group.load();
+        try (OutputStream out = Files.newOutputStream(Paths.get(tmp + GroupBundle.SUFFIX))) {
+            assertThat(GroupBundle.write(group, out)).isTrue();
+        }
+        return tmp.toUri().toURL();
+    }
+}
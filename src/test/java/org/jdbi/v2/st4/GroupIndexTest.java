@@ -0,0 +1,95 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.junit.Test;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GroupIndexTest {
+
+    @Test
+    public void testProcessorIndexesAnnotatedTypes() throws Exception {
+        final GroupIndex index = GroupIndex.of(GeneratedRendererTest.Dao.class.getClassLoader());
+
+        assertThat(index.find(GeneratedRendererTest.Dao.class.getName()).toString())
+            .isEqualTo(GeneratedRendererTest.Dao.class.getResource("GeneratedRendererTest.Dao.sql.stg").toString());
+        assertThat(index.find(GroupIndexTest.class.getName())).isNull();
+        assertThat(index.renderers("org/jdbi/v2/st4/GeneratedRendererTest.Dao.sql.stg").className())
+            .isEqualTo(GeneratedGroups.className("org/jdbi/v2/st4/GeneratedRendererTest.Dao.sql.stg"));
+    }
+
+    @Test
+    public void testProcessorIndexesTypesWithoutAnnotation() throws Exception {
+        final GroupIndex index = GroupIndex.of(PerTypeLocatorTest.Dao.class.getClassLoader());
+
+        assertThat(PerTypeLocatorTest.Dao.class.isAnnotationPresent(UseST4StatementLocator.class)).isFalse();
+        assertThat(index.find(PerTypeLocatorTest.Dao.class.getName()).toString())
+            .isEqualTo(PerTypeLocatorTest.Dao.class.getResource("PerTypeLocatorTest.Dao.sql.stg").toString());
+        assertThat(index.find(OuterDao.class.getName())).isNotNull();
+    }
+
+    @Test
+    public void testFirstIndexWins() throws Exception {
+        final Path first = root("com.example.Dao=com/example/Dao.sql.stg\n"
+                                + "# a comment\n"
+                                + "not an entry\n"
+                                + "com.example.Empty=\n"
+                                + GroupIndex.RENDERERS + "com/example/Dao.sql.stg=com.example.Dao_sql_stg 1a\n");
+        final Path second = root("com.example.Dao=com/example/Dao.sql.stg\n"
+                                 + "com.example.Other=com/example/Dao.sql.stg\n");
+        try (URLClassLoader loader = new URLClassLoader(new URL[] {first.toUri().toURL(), second.toUri().toURL()},
+                                                        null)) {
+            final GroupIndex index = GroupIndex.of(loader);
+
+            assertThat(index.entries()).containsOnlyKeys("com.example.Dao", "com.example.Other");
+            assertThat(index.find("com.example.Dao"))
+                .isEqualTo(first.resolve("com/example/Dao.sql.stg").toUri().toURL());
+            assertThat(index.find("com.example.Other"))
+                .isEqualTo(second.resolve("com/example/Dao.sql.stg").toUri().toURL());
+            assertThat(index.renderers("com/example/Dao.sql.stg").checksum()).isEqualTo("1a");
+            assertThat(GroupIndex.of(loader)).isSameAs(index);
+        }
+    }
+
+    @Test
+    public void testPreloadIndexed() throws Exception {
+        final Path root = root("com.example.Dao=com/example/Dao.sql.stg\n");
+        try (URLClassLoader loader = new URLClassLoader(new URL[] {root.toUri().toURL()}, null)) {
+            final STGroupCache cache = STGroupCache.create(10);
+            final PreloadReport report = cache.preloadIndexed(Runnable::run, false, loader);
+
+            assertThat(report.hasErrors()).isFalse();
+            assertThat(report.groups()).hasSize(1);
+            assertThat(cache.size()).isEqualTo(1);
+        }
+    }
+
+    private static Path root(final String index) throws Exception {
+        final Path root = Files.createTempDirectory("classes");
+        final Path indexFile = root.resolve(GroupIndex.RESOURCE);
+        Files.createDirectories(indexFile.getParent());
+        Files.write(indexFile, index.getBytes(StandardCharsets.UTF_8));
+        final Path group = root.resolve("com/example/Dao.sql.stg");
+        Files.createDirectories(group.getParent());
+        Files.write(group, "q() ::= <<select 1>>\n".getBytes(StandardCharsets.UTF_8));
+        return root;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.sqlobject.SqlQuery;
+import org.skife.jdbi.v2.sqlobject.SqlUpdate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class InListTest {
+
+    @Rule
+    public final H2Rule h2 = new H2Rule();
+
+    @Test
+    public void testBucketSizes() throws Exception {
+        final int[] powersOfTwo = {};
+        assertThat(InLists.bucket(0, powersOfTwo)).isEqualTo(1);
+        assertThat(InLists.bucket(1, powersOfTwo)).isEqualTo(1);
+        assertThat(InLists.bucket(3, powersOfTwo)).isEqualTo(4);
+        assertThat(InLists.bucket(4, powersOfTwo)).isEqualTo(4);
+        assertThat(InLists.bucket(5, powersOfTwo)).isEqualTo(8);
+        assertThat(InLists.bucket(1000, powersOfTwo)).isEqualTo(1024);
+
+        final int[] ladder = {10, 50};
+        assertThat(InLists.bucket(0, ladder)).isEqualTo(10);
+        assertThat(InLists.bucket(10, ladder)).isEqualTo(10);
+        assertThat(InLists.bucket(11, ladder)).isEqualTo(50);
+        assertThat(InLists.bucket(51, ladder)).isEqualTo(100);
+        assertThat(InLists.bucket(101, ladder)).isEqualTo(150);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSizesMustAscend() throws Exception {
+        InLists.bucket(3, new int[]{10, 5});
+    }
+
+    @Test
+    public void testFewDistinctStatements() throws Exception {
+        final TemplateMetrics metrics = TemplateMetrics.create();
+        final DBI dbi = new DBI(h2);
+        dbi.setStatementLocator(ST4StatementLocator.forType(STGroupCache.shared(), Dao.class).withListener(metrics));
+        final Dao dao = dbi.onDemand(Dao.class);
+        dao.createSomethingTable();
+        dao.insertFixtures();
+
+        assertThat(dao.findNames(Collections.<Integer>emptyList())).isEmpty();
+        assertThat(dao.findNames(Arrays.asList(1))).containsExactly("Brian");
+        assertThat(dao.findNames(Arrays.asList(1, 2, 3))).containsExactly("Brian", "Jan", "Steven");
+        assertThat(dao.findNames(Arrays.asList(2, 4))).containsExactly("Jan");
+        assertThat(dao.findNamesPaddedWithNull(new int[]{1, 2, 3})).containsExactly("Brian", "Jan", "Steven");
+        assertThat(dao.findNamesPaddedWithNull(new int[]{})).isEmpty();
+
+        final TemplateMetrics.Entry findNames = metrics.mostDistinctStatements(1).get(0);
+        assertThat(findNames.template()).isEqualTo("findNames");
+        assertThat(findNames.count()).isEqualTo(6);
+        // one, two and four ids, and five with the sizes of the second method
+        assertThat(findNames.distinctStatementCount()).isEqualTo(4);
+    }
+
+    public interface Dao {
+        @SqlUpdate
+        void createSomethingTable();
+
+        @SqlUpdate
+        void insertFixtures();
+
+        @SqlQuery
+        List<String> findNames(@BindBucketed("ids") List<Integer> ids);
+
+        @SqlQuery("findNames")
+        List<String> findNamesPaddedWithNull(@BindBucketed(value = "ids", padding = InLists.Padding.NULL, sizes = {5})
+                                             int[] ids);
+    }
+}
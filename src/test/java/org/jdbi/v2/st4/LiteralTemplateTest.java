@@ -0,0 +1,76 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.skife.jdbi.v2.StatementContext;
+import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.STGroup;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LiteralTemplateTest {
+
+    private final ST4StatementLocator locator = new ST4StatementLocator(new STGroup('<', '>'));
+
+    @Test
+    public void testVerbatimLiterals() throws Exception {
+        assertThat(ST4StatementLocator.isVerbatim("select * from something where id > 3")).isTrue();
+        assertThat(ST4StatementLocator.isVerbatim("select *\n  from something\n")).isTrue();
+        assertThat(ST4StatementLocator.isVerbatim("")).isTrue();
+
+        assertThat(ST4StatementLocator.isVerbatim("select * from <table>")).isFalse();
+        assertThat(ST4StatementLocator.isVerbatim("select '<' from something")).isFalse();
+        assertThat(ST4StatementLocator.isVerbatim("select 'a\\\\b'")).isFalse();
+        assertThat(ST4StatementLocator.isVerbatim("select *\r\nfrom something")).isFalse();
+        assertThat(ST4StatementLocator.isVerbatim("select *\n   \nfrom something")).isFalse();
+    }
+
+    @Test
+    public void testVerbatimLiteralsRenderAsST() throws Exception {
+        for (String sql : new String[]{"select 1 where 2 > 1", "select 1\n  from dual\n\nwhere 1 = 1\n", "  select 1"}) {
+            assertThat(ST4StatementLocator.isVerbatim(sql)).isTrue();
+            assertThat(new ST(sql).render()).isEqualTo(sql);
+            assertThat(locator.locate(sql, ctx())).isEqualTo(sql);
+        }
+    }
+
+    @Test
+    public void testCompiledLiteralIsReusedWithDifferentAttributes() throws Exception {
+        final String sql = "select <columns; separator=\",\"> from something";
+
+        assertThat(locator.locate(sql, ctx("columns", new String[]{"id", "name"})))
+            .isEqualTo("select id,name from something");
+        assertThat(locator.locate(sql, ctx("columns", "name")))
+            .isEqualTo("select name from something");
+        assertThat(locator.locate(sql, ctx("other", "name")))
+            .isEqualTo("select  from something");
+    }
+
+    private static StatementContext ctx() {
+        return ctx(null, null);
+    }
+
+    private static StatementContext ctx(final String name, final Object value) {
+        final StatementContext ctx = Mockito.mock(StatementContext.class);
+        Mockito.when(ctx.getAttributes())
+               .thenReturn(name == null
+                           ? Collections.<String, Object>emptyMap()
+                           : Collections.singletonMap(name, value));
+        return ctx;
+    }
+}
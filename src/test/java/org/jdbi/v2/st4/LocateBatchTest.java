@@ -0,0 +1,94 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.junit.Test;
+import org.stringtemplate.v4.STGroupString;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LocateBatchTest {
+
+    private final ST4StatementLocator locator = new ST4StatementLocator(new STGroupString(
+        "insert(table, columns) ::= <%insert into <table> (<columns; separator=\",\">) values (:a)%>"));
+
+    @Test
+    public void testGroupsRowsByDistinctDefines() throws Exception {
+        final List<Map<String, Object>> rows = Arrays.asList(row("p1", "ignored", 1),
+                                                             row("p2", "ignored", 2),
+                                                             row("p1", "ignored", 3),
+                                                             row("p1", "ignored", 4));
+
+        final LocatedBatch batch = locator.locateBatch("insert", null, rows);
+
+        assertThat(batch.rowCount()).isEqualTo(4);
+        assertThat(batch.statements()).hasSize(2);
+        assertThat(batch.statements().get(0).sql()).isEqualTo("insert into p1 (a) values (:a)");
+        assertThat(batch.statements().get(0).rows()).containsExactly(0, 2, 3);
+        assertThat(batch.statements().get(1).sql()).isEqualTo("insert into p2 (a) values (:a)");
+        assertThat(batch.statements().get(1).rows()).containsExactly(1);
+        assertThat(locator.getStats().locateCount()).isEqualTo(2);
+        assertThat(locator.getStats().batchedRowCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testRowsWithUncomparableValuesShareStatementsBySql() throws Exception {
+        final Map<String, Object> first = row("p1", "ignored", 1);
+        first.put("table", new StringBuilder("p1"));
+        final Map<String, Object> second = row("p1", "ignored", 2);
+        second.put("table", new StringBuilder("p1"));
+
+        final LocatedBatch batch = locator.locateBatch("insert", null, Arrays.asList(first, second, row("p1", "a", 3)));
+
+        assertThat(batch.statements()).hasSize(1);
+        assertThat(batch.statements().get(0).rows()).containsExactly(0, 1, 2);
+        assertThat(locator.getStats().locateCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void testReusedRowMap() throws Exception {
+        final Map<String, Object> row = row("p1", "ignored", 1);
+        final LocatedBatch batch = locator.locateBatch("insert", null, Arrays.asList(row, row));
+        row.put("table", "p2");
+
+        assertThat(locator.locateBatch("insert", null, Arrays.asList(row)).statements().get(0).sql())
+            .isEqualTo("insert into p2 (a) values (:a)");
+        assertThat(batch.statements()).hasSize(1);
+    }
+
+    @Test
+    public void testSqlLiterals() throws Exception {
+        final LocatedBatch batch = locator.locateBatch("delete from <table>",
+                                                       null,
+                                                       Arrays.asList(row("p1", "ignored", 1), row("p1", "b", 2)));
+
+        assertThat(batch.statements()).hasSize(1);
+        assertThat(batch.statements().get(0).sql()).isEqualTo("delete from p1");
+        assertThat(batch.statements().get(0).rows()).containsExactly(0, 1);
+    }
+
+    private static Map<String, Object> row(final String table, final String other, final int id) {
+        final Map<String, Object> row = new HashMap<>();
+        row.put("table", table);
+        row.put("columns", new String[]{"a"});
+        row.put("other", other);
+        row.put("id", id);
+        return row;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.junit.Test;
+import org.skife.jdbi.v2.sqlobject.SqlStatementCustomizer;
+
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LocatorFactoryTest {
+
+    private final UseST4StatementLocator.LocatorFactory factory = new UseST4StatementLocator.LocatorFactory();
+
+    @Test
+    public void testMemoizedPerTypeAndAnnotation() throws Exception {
+        final UseST4StatementLocator an = OuterDao.class.getAnnotation(UseST4StatementLocator.class);
+
+        final SqlStatementCustomizer first = factory.createForType(an, OuterDao.class);
+        assertThat(factory.createForType(an, OuterDao.class)).isSameAs(first);
+        assertThat(factory.createForType(an, PerTypeLocatorTest.Dao.class)).isNotSameAs(first);
+        assertThat(factory.createForType(Unindented.class.getAnnotation(UseST4StatementLocator.class), OuterDao.class))
+            .isNotSameAs(first);
+    }
+
+    @Test
+    public void testMadeAgainOnceGroupsAreInvalidated() throws Exception {
+        final UseST4StatementLocator an = OuterDao.class.getAnnotation(UseST4StatementLocator.class);
+
+        final SqlStatementCustomizer first = factory.createForType(an, OuterDao.class);
+        STGroupCache.shared().invalidate(ST4StatementLocator.classToUrl(OuterDao.class));
+        assertThat(factory.createForType(an, OuterDao.class)).isNotSameAs(first);
+    }
+
+    @Test
+    public void testDoesNotPinCustomizers() throws Exception {
+        final UseST4StatementLocator an = PinnedDao.class.getAnnotation(UseST4StatementLocator.class);
+
+        SqlStatementCustomizer first = factory.createForType(an, PinnedDao.class);
+        final WeakReference<SqlStatementCustomizer> weak = new WeakReference<>(first);
+        first = null;
+        factory.createForType(Unindented.class.getAnnotation(UseST4StatementLocator.class), PinnedDao.class);
+        // what the collector does to soft references under memory pressure
+        UseST4StatementLocator.LocatorFactory.made(PinnedDao.class).values().forEach(Reference::clear);
+        for (int i = 0; i < 100 && weak.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertThat(weak.get()).isNull();
+
+        assertThat(factory.createForType(an, PinnedDao.class)).isNotNull();
+        assertThat(UseST4StatementLocator.LocatorFactory.made(PinnedDao.class).values())
+            .hasSize(1)
+            .allMatch((ref) -> ref.get() != null);
+    }
+
+    @Test
+    public void testNotMemoizedWithoutCache() throws Exception {
+        final UseST4StatementLocator an = Uncached.class.getAnnotation(UseST4StatementLocator.class);
+
+        assertThat(factory.createForType(an, Uncached.class)).isNotSameAs(factory.createForType(an, Uncached.class));
+    }
+
+    @Test
+    public void testTypeWithoutGroupFile() throws Exception {
+        final UseST4StatementLocator an = OuterDao.class.getAnnotation(UseST4StatementLocator.class);
+
+        assertThatThrownBy(() -> factory.createForType(an, Unindented.class))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("org/jdbi/v2/st4/LocatorFactoryTest.Unindented.sql.stg");
+    }
+
+    @UseST4StatementLocator(groupFile = "/org/jdbi/v2/st4/OuterDao.sql.stg", autoIndent = false)
+    public interface Unindented {
+    }
+
+    @UseST4StatementLocator(groupFile = "/org/jdbi/v2/st4/OuterDao.sql.stg")
+    public interface PinnedDao {
+    }
+
+    @UseST4StatementLocator(groupFile = "/org/jdbi/v2/st4/OuterDao.sql.stg", useTemplateGroupCache = false)
+    public interface Uncached {
+    }
+}
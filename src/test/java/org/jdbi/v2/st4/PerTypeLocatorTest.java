@@ -15,7 +15,9 @@ package org.jdbi.v2.st4;
 
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.Mockito;
 import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.StatementContext;
 import org.skife.jdbi.v2.sqlobject.SqlQuery;
 import org.skife.jdbi.v2.sqlobject.SqlUpdate;
 import org.skife.jdbi.v2.sqlobject.helpers.MapResultAsBean;
@@ -65,6 +67,21 @@ public class PerTypeLocatorTest {
 
     }
 
+    @Test
+    public void testTypeWithoutGroupFileUsesFallback() throws Exception {
+        final StatementContext ctx = Mockito.mock(StatementContext.class);
+        Mockito.<Class<?>>when(ctx.getSqlObjectType()).thenReturn(NoGroupFile.class);
+
+        for (final ST4StatementLocator.UseSTGroupCache useCache : ST4StatementLocator.UseSTGroupCache.values()) {
+            final StatementLocator sl = ST4StatementLocator.perType(useCache, "/explicit/sql.stg");
+            assertThat(sl.locate("findNameById", ctx)).isEqualTo("select name from something where id = :0 ");
+            assertThat(sl.locate("select 1", ctx)).isEqualTo("select 1");
+        }
+    }
+
+    public interface NoGroupFile {
+    }
+
     public interface Dao {
 
         @SqlUpdate
@@ -0,0 +1,65 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PreloadTest {
+
+    @Test
+    public void testPreloadReportsGroupsAndErrors() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final PreloadReport report = ST4StatementLocator.preload(executor, true,
+                                                                     DaoTest.InnerDao.class,
+                                                                     Broken.class,
+                                                                     NoGroup.class);
+
+            assertThat(report.groups()).hasSize(3);
+
+            final PreloadReport.GroupReport inner = report.groups().get(0);
+            assertThat(inner.source()).startsWith(DaoTest.InnerDao.class.getName());
+            // three of its own, two imported
+            assertThat(inner.templateCount()).isEqualTo(5);
+            assertThat(inner.errors()).isEmpty();
+
+            assertThat(report.groups().get(1).errors()).isNotEmpty();
+            assertThat(report.groups().get(2).errors()).containsExactly("no template group found");
+            assertThat(report.hasErrors()).isTrue();
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPreloadedGroupsAreCached() throws Exception {
+        ST4StatementLocator.preload(OuterDao.class);
+        final PreloadReport again = ST4StatementLocator.preload(OuterDao.class);
+
+        assertThat(again.groups().get(0).alreadyLoaded()).isTrue();
+        assertThat(again.hasErrors()).isFalse();
+    }
+
+    public interface Broken {
+    }
+
+    public interface NoGroup {
+    }
+}
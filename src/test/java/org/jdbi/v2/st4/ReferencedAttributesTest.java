@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.skife.jdbi.v2.StatementContext;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.STGroupString;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReferencedAttributesTest {
+
+    private final STGroup group = new STGroupString(
+        "outer(table) ::= <%select <inner()> from <table><if(where)> where <where><endif>%>\n"
+        + "inner() ::= <%<columns; separator=\",\">%>\n"
+        + "dynamic() ::= <%<(which)()>%>\n");
+
+    @Test
+    public void testFindsAttributesOfCalledTemplates() throws Exception {
+        assertThat(CompiledTemplates.referencedAttributes(group, group.lookupTemplate("/outer")))
+            .containsOnly("table", "where", "columns");
+        assertThat(CompiledTemplates.referencedAttributes(group, group.lookupTemplate("/dynamic"))).isNull();
+    }
+
+    @Test
+    public void testOnlyReferencedAttributesAreAdded() throws Exception {
+        final ST4StatementLocator sl = new ST4StatementLocator(group);
+        final Map<String, Object> attributes = new HashMap<>();
+        attributes.put("table", "something");
+        attributes.put("columns", new String[]{"id", "name"});
+        // ST refuses attribute names with a '.', so this would fail if it were added
+        attributes.put("not.used", "at all");
+
+        assertThat(sl.locate("outer", ctx(attributes))).isEqualTo("select id,name from something");
+
+        assertThat(group.lookupTemplate("/outer").formalArguments).containsOnlyKeys("table");
+    }
+
+    @Test
+    public void testDynamicTemplateNamesSeeAllAttributes() throws Exception {
+        final ST4StatementLocator sl = new ST4StatementLocator(group);
+        final Map<String, Object> attributes = new HashMap<>();
+        attributes.put("which", "inner");
+        attributes.put("columns", "id");
+
+        assertThat(sl.locate("dynamic", ctx(attributes))).isEqualTo("id");
+        assertThat(group.lookupTemplate("/dynamic").formalArguments).isNullOrEmpty();
+    }
+
+    @Test
+    public void testDictionariesAreNotAttributes() throws Exception {
+        final STGroup withDictionary = new STGroupString(
+            "types ::= [\"int\":\"INTEGER\", default:\"VARCHAR\"]\n"
+            + "column(name, type) ::= <%<name> <types.(type)>%>\n");
+        final ST4StatementLocator sl = new ST4StatementLocator(withDictionary);
+        final Map<String, Object> attributes = new HashMap<>();
+        attributes.put("name", "id");
+        attributes.put("type", "int");
+
+        assertThat(sl.locate("column", ctx(attributes))).isEqualTo("id INTEGER");
+        assertThat(CompiledTemplates.referencedAttributes(withDictionary, withDictionary.lookupTemplate("/column")))
+            .containsOnly("name", "type");
+    }
+
+    @Test
+    public void testUnreferencedAttributesDoNotAffectRenderCache() throws Exception {
+        final RenderedStatementCache cache = RenderedStatementCache.maximumSize(10);
+        final ST4StatementLocator sl = new ST4StatementLocator(group).withRenderCache(cache);
+        final Map<String, Object> attributes = new HashMap<>();
+        attributes.put("table", "something");
+        attributes.put("columns", "id");
+        attributes.put("unused", new Object());
+
+        assertThat(sl.locate("outer", ctx(attributes))).isEqualTo("select id from something");
+        attributes.put("unused", new Object());
+        assertThat(sl.locate("outer", ctx(attributes))).isEqualTo("select id from something");
+
+        assertThat(cache.uncacheableCount()).isEqualTo(0);
+        assertThat(cache.hitCount()).isEqualTo(1);
+    }
+
+    private static StatementContext ctx(final Map<String, Object> attributes) {
+        final StatementContext ctx = Mockito.mock(StatementContext.class);
+        Mockito.when(ctx.getAttributes()).thenReturn(attributes);
+        return ctx;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReloadOnChangeTest {
+
+    @Test
+    public void testReloadsChangedGroup() throws Exception {
+        final Path tmp = Files.createTempFile("test", ".stg");
+        Files.write(tmp, "test() ::= <<chirp>>".getBytes(StandardCharsets.UTF_8));
+        final ReloadableGroup group = ReloadableGroup.watch(tmp.toUri().toURL(), 1, TimeUnit.HOURS);
+
+        final PreparedGroup first = group.current();
+        assertThat(group.reload().get()).isFalse();
+        assertThat(group.current()).isSameAs(first);
+
+        Files.write(tmp, "test() ::= <<ribbit!>>".getBytes(StandardCharsets.UTF_8));
+        assertThat(group.reload().get()).isTrue();
+        assertThat(group.current()).isNotSameAs(first);
+        assertThat(group.current().lookup("test").constant()).isEqualTo("ribbit!");
+    }
+
+    @Test
+    public void testReloadsWhenImportedGroupChanges() throws Exception {
+        final Path dir = Files.createTempDirectory("test");
+        final Path shared = dir.resolve("shared.stg");
+        Files.write(shared, "fields() ::= <<id>>".getBytes(StandardCharsets.UTF_8));
+        final Path main = dir.resolve("main.stg");
+        Files.write(main, "import \"shared.stg\"\nfind() ::= <<select <fields()> from t>>".getBytes(StandardCharsets.UTF_8));
+        final ReloadableGroup group = ReloadableGroup.watch(main.toUri().toURL(), 1, TimeUnit.HOURS);
+
+        assertThat(render(group, "find")).isEqualTo("select id from t");
+
+        Files.write(shared, "fields() ::= <<id, name>>".getBytes(StandardCharsets.UTF_8));
+        assertThat(group.reload().get()).isTrue();
+        assertThat(render(group, "find")).isEqualTo("select id, name from t");
+    }
+
+    @Test
+    public void testDoesNotCheckWhileLocating() throws Exception {
+        final Path tmp = Files.createTempFile("test", ".stg");
+        Files.write(tmp, "test() ::= <<chirp>>".getBytes(StandardCharsets.UTF_8));
+        final ReloadableGroup group = ReloadableGroup.watch(tmp.toUri().toURL(), 1, TimeUnit.HOURS);
+
+        final PreparedGroup first = group.current();
+        Files.write(tmp, "test() ::= <<ribbit!>>".getBytes(StandardCharsets.UTF_8));
+        assertThat(group.current()).isSameAs(first);
+    }
+
+    @Test
+    public void testKeepsGroupWhenChangeDoesNotCompile() throws Exception {
+        final Path tmp = Files.createTempFile("test", ".stg");
+        Files.write(tmp, "test() ::= <<chirp>>".getBytes(StandardCharsets.UTF_8));
+        final ReloadableGroup group = ReloadableGroup.watch(tmp.toUri().toURL(), 1, TimeUnit.HOURS);
+
+        Files.write(tmp, "test() ::= <<ribbit <if(x)> >>".getBytes(StandardCharsets.UTF_8));
+        assertThat(group.reload().get()).isFalse();
+        assertThat(render(group, "test")).isEqualTo("chirp");
+        assertThat(group.lastErrors()).isNotEmpty();
+    }
+
+    private String render(final ReloadableGroup group, final String name) {
+        return group.current().lookup(name).newInstance(Collections.<String, Object>emptyMap()).render();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.skife.jdbi.v2.StatementContext;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class ReloadableGroupTest {
+
+    private final StatementContext ctx = Mockito.mock(StatementContext.class);
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testPublishesChangedGroup() throws Exception {
+        final Path file = Files.createTempFile("test", ".stg");
+        write(file, "q() ::= <<select 1>>\n");
+        try (ReloadableGroup group = ReloadableGroup.start(file.toUri().toURL(), executor, 1, TimeUnit.HOURS,
+                                                           new ReloadableGroup.Listener() {})) {
+            final ST4StatementLocator sl = ST4StatementLocator.forGroup(group);
+            assertThat(sl.locate("q", ctx)).isEqualTo("select 1");
+            assertThat(group.reload().get()).isFalse();
+
+            write(file, "q() ::= <<select 22>>\n");
+            assertThat(group.reload().get()).isTrue();
+            assertThat(sl.locate("q", ctx)).isEqualTo("select 22");
+            assertThat(group.reloadCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void testKeepsGroupWhichCompiledWhenChangeFails() throws Exception {
+        final Path file = Files.createTempFile("test", ".stg");
+        write(file, "q() ::= <<select 1>>\n");
+        final List<String> failures = new ArrayList<>();
+        final ReloadableGroup.Listener listener = new ReloadableGroup.Listener() {
+            @Override
+            public void failed(final URL url, final List<String> errors) {
+                failures.addAll(errors);
+            }
+        };
+        try (ReloadableGroup group = ReloadableGroup.start(file.toUri().toURL(), executor, 1, TimeUnit.HOURS,
+                                                           listener)) {
+            final ST4StatementLocator sl = ST4StatementLocator.forGroup(group);
+
+            write(file, "q() ::= <<select <if(x)>1>>\n");
+            assertThat(group.reload().get()).isFalse();
+            assertThat(sl.locate("q", ctx)).isEqualTo("select 1");
+            assertThat(group.failureCount()).isEqualTo(1);
+            assertThat(group.lastErrors()).isNotEmpty();
+            assertThat(failures).isNotEmpty();
+
+            assertThat(group.reload().get()).isFalse();
+            assertThat(group.failureCount()).isEqualTo(1);
+
+            write(file, "q() ::= <<select 333>>\n");
+            assertThat(group.reload().get()).isTrue();
+            assertThat(sl.locate("q", ctx)).isEqualTo("select 333");
+            assertThat(group.lastErrors()).isEmpty();
+        }
+    }
+
+    @Test
+    public void testGroupWhichDoesNotCompileIsNotStarted() throws Exception {
+        final Path file = Files.createTempFile("test", ".stg");
+        write(file, "q() ::= <<select <if(x)>1>>\n");
+        try {
+            ReloadableGroup.start(file.toUri().toURL(), executor, 1, TimeUnit.HOURS, new ReloadableGroup.Listener() {});
+            fail("expected IllegalStateException");
+        }
+        catch (final IllegalStateException e) {
+            assertThat(e.getMessage()).contains(file.getFileName().toString());
+        }
+    }
+
+    private static void write(final Path file, final String text) throws Exception {
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+}
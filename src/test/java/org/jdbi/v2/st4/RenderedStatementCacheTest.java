@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.skife.jdbi.v2.StatementContext;
+import org.stringtemplate.v4.STGroupString;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class RenderedStatementCacheTest {
+
+    private final ST4StatementLocator locator =
+        new ST4StatementLocator(new STGroupString("select(columns) ::= <%select <columns; separator=\",\"> from t%>"));
+
+    @Test
+    public void testHitsOnSameDefines() throws Exception {
+        final RenderedStatementCache cache = RenderedStatementCache.maximumSize(10);
+        final ST4StatementLocator sl = locator.withRenderCache(cache);
+
+        assertThat(sl.locate("select", ctx("columns", new String[]{"a", "b"}))).isEqualTo("select a,b from t");
+        assertThat(sl.locate("select", ctx("columns", Arrays.asList("a", "b")))).isEqualTo("select a,b from t");
+        assertThat(sl.locate("select", ctx("columns", new String[]{"a"}))).isEqualTo("select a from t");
+
+        assertThat(cache.missCount()).isEqualTo(2);
+        assertThat(cache.hitCount()).isEqualTo(1);
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void testMutatedArrayIsNotSeenByCache() throws Exception {
+        final RenderedStatementCache cache = RenderedStatementCache.maximumSize(10);
+        final ST4StatementLocator sl = locator.withRenderCache(cache);
+
+        final String[] columns = {"a", "b"};
+        assertThat(sl.locate("select", ctx("columns", columns))).isEqualTo("select a,b from t");
+        columns[1] = "c";
+        assertThat(sl.locate("select", ctx("columns", columns))).isEqualTo("select a,c from t");
+    }
+
+    @Test
+    public void testUncacheableValuesSkipTheCache() throws Exception {
+        final RenderedStatementCache cache = RenderedStatementCache.maximumSize(10);
+        final ST4StatementLocator sl = locator.withRenderCache(cache);
+
+        final StringBuilder column = new StringBuilder("a");
+        assertThat(sl.locate("select", ctx("columns", column))).isEqualTo("select a from t");
+        column.append("b");
+        assertThat(sl.locate("select", ctx("columns", column))).isEqualTo("select ab from t");
+
+        assertThat(cache.uncacheableCount()).isEqualTo(2);
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testEvictsBeyondMaximumSize() throws Exception {
+        final RenderedStatementCache cache = RenderedStatementCache.maximumSize(3);
+        final ST4StatementLocator sl = locator.withRenderCache(cache);
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(sl.locate("select", ctx("columns", "c" + i))).isEqualTo("select c" + i + " from t");
+        }
+
+        assertThat(cache.size()).isEqualTo(3);
+        assertThat(cache.evictionCount()).isEqualTo(7);
+    }
+
+    @Test
+    public void testSharedByLocatorsWithDifferentSettings() throws Exception {
+        final RenderedStatementCache cache = RenderedStatementCache.maximumSize(10);
+        final ST4StatementLocator indented =
+            new ST4StatementLocator(new STGroupString("q(columns) ::= <<select\n"
+                                                      + "    <columns; separator=\",\\n\">\n"
+                                                      + "from t>>\n")).withRenderCache(cache);
+        final ST4StatementLocator unindented = indented.withAutoIndent(false);
+        final ST4StatementLocator limited = indented.withMaxLength(10);
+
+        assertThat(indented.locate("q", ctx("columns", Arrays.asList("a", "b"))))
+            .isEqualTo(String.format("select%n    a,%n    b%nfrom t"));
+        assertThat(unindented.locate("q", ctx("columns", Arrays.asList("a", "b")))).isEqualTo("select\na,\nb\nfrom t");
+        assertThatThrownBy(() -> limited.locate("q", ctx("columns", Arrays.asList("a", "b"))))
+            .isInstanceOf(StatementTooLongException.class);
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.hitCount()).isEqualTo(1);
+    }
+
+    private static StatementContext ctx(final String name, final Object value) {
+        final Map<String, Object> attributes = new HashMap<>();
+        attributes.put(name, value);
+        final StatementContext ctx = Mockito.mock(StatementContext.class);
+        Mockito.when(ctx.getAttributes()).thenReturn(attributes);
+        return ctx;
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.skife.jdbi.v2.StatementContext;
+import org.skife.jdbi.v2.tweak.StatementLocator;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.STGroupFile;
+import org.stringtemplate.v4.compiler.CompiledST;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class STGroupCacheTest {
+
+    private final StatementContext ctx = Mockito.mock(StatementContext.class);
+
+    @Test
+    public void testCachesAreIndependent() throws Exception {
+        final URL url = group("test() ::= <<chirp>>");
+        final STGroupCache one = STGroupCache.create(10);
+        final STGroupCache two = STGroupCache.create(10);
+
+        assertThat(ST4StatementLocator.forURL(one, url).locate("test", ctx)).isEqualTo("chirp");
+        rewrite(url, "test() ::= <<ribbit>>");
+        assertThat(ST4StatementLocator.forURL(one, url).locate("test", ctx)).isEqualTo("chirp");
+        assertThat(ST4StatementLocator.forURL(two, url).locate("test", ctx)).isEqualTo("ribbit");
+
+        assertThat(one.loadCount()).isEqualTo(1);
+        assertThat(one.hitCount()).isEqualTo(1);
+        assertThat(two.loadCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testInvalidateReloadsGroup() throws Exception {
+        final URL url = group("test() ::= <<chirp>>");
+        final STGroupCache cache = STGroupCache.create(10);
+
+        assertThat(ST4StatementLocator.forURL(cache, url).locate("test", ctx)).isEqualTo("chirp");
+        rewrite(url, "test() ::= <<ribbit>>");
+        cache.invalidate(url);
+        assertThat(ST4StatementLocator.forURL(cache, url).locate("test", ctx)).isEqualTo("ribbit");
+
+        assertThat(cache.loadCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testBoundedBySize() throws Exception {
+        final STGroupCache cache = STGroupCache.create(2);
+        for (int i = 0; i < 5; i++) {
+            ST4StatementLocator.forURL(cache, group("test() ::= <<" + i + ">>")).locate("test", ctx);
+        }
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.evictionCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void testScopedByClassLoader() throws Exception {
+        final STGroupCache cache = STGroupCache.create(10);
+        final ClassLoader other = new URLClassLoader(new URL[0], getClass().getClassLoader());
+
+        cache.get(ST4StatementLocator.classToUrl(OuterDao.class), OuterDao.class.getClassLoader());
+        cache.get(ST4StatementLocator.classToUrl(OuterDao.class), other);
+        cache.get(ST4StatementLocator.classToUrl(OuterDao.class), other);
+        // along with the group file both import, once per class loader
+        assertThat(cache.size()).isEqualTo(4);
+        assertThat(cache.loadCount()).isEqualTo(4);
+
+        cache.invalidate(other);
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void testPerTypeUsesGivenCache() throws Exception {
+        final STGroupCache cache = STGroupCache.create(10);
+        final ST4StatementLocator fallback = ST4StatementLocator.fromClasspath(cache, "/org/jdbi/v2/st4/OuterDao.sql.stg");
+        final StatementLocator sl = ST4StatementLocator.perType(cache, fallback);
+        Mockito.<Class<?>>when(ctx.getSqlObjectType()).thenReturn(OuterDao.class);
+
+        assertThat(sl.locate("something_fields", ctx)).isEqualTo("id, name");
+        // the fallback is the same file, loaded through the same class loader, along with the file it imports
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.loadCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testImportedGroupsAreShared() throws Exception {
+        final Path dir = Files.createTempDirectory("imports");
+        Files.write(dir.resolve("shared.stg"), "fields() ::= <<id, name>>".getBytes(StandardCharsets.UTF_8));
+        Files.write(dir.resolve("one.stg"),
+                    "import \"shared.stg\"\none() ::= <<select <fields()> from one>>".getBytes(StandardCharsets.UTF_8));
+        Files.write(dir.resolve("two.stg"),
+                    "import \"shared.stg\"\ntwo() ::= <<select <fields()> from two>>".getBytes(StandardCharsets.UTF_8));
+        final STGroupCache cache = STGroupCache.create(10);
+
+        final PreparedGroup one = cache.get(dir.resolve("one.stg").toUri().toURL(), null);
+        final PreparedGroup two = cache.get(dir.resolve("two.stg").toUri().toURL(), null);
+
+        assertThat(one.group().lookupTemplate("fields")).isSameAs(two.group().lookupTemplate("fields"));
+        assertThat(ST4StatementLocator.forURL(cache, dir.resolve("two.stg").toUri().toURL()).locate("two", ctx))
+            .isEqualTo("select id, name from two");
+        assertThat(cache.loadCount()).isEqualTo(3);
+        assertThat(cache.sharedImportCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testImportingGroupsHoldOneCompiledCopyOfTheImport() throws Exception {
+        final Path dir = Files.createTempDirectory("imports");
+        final StringBuilder shared = new StringBuilder();
+        for (int i = 0; i < 5; i++) {
+            shared.append("shared").append(i).append("() ::= <<column").append(i).append(">>\n");
+        }
+        Files.write(dir.resolve("shared.stg"), shared.toString().getBytes(StandardCharsets.UTF_8));
+        final List<URL> importers = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final Path importer = dir.resolve("importer" + i + ".stg");
+            Files.write(importer,
+                        ("import \"shared.stg\"\nq() ::= <<select <shared0()> from t" + i + ">>\n")
+                            .getBytes(StandardCharsets.UTF_8));
+            importers.add(importer.toUri().toURL());
+        }
+        final STGroupCache cache = STGroupCache.create(100);
+
+        final Set<CompiledST> cached = Collections.newSetFromMap(new IdentityHashMap<>());
+        final Set<CompiledST> uncached = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (final URL url : importers) {
+            compiled(cache.get(url, null).group(), cached);
+            compiled(new STGroupFile(url, "UTF-8", '<', '>'), uncached);
+        }
+
+        // one template of each importer, and one copy of the five imported ones in all
+        assertThat(cached).hasSize(20 + 5);
+        assertThat(uncached).hasSize(20 + 20 * 5);
+    }
+
+    private static void compiled(final STGroup group, final Set<CompiledST> into) {
+        into.add(group.lookupTemplate("q"));
+        for (int i = 0; i < 5; i++) {
+            into.add(group.lookupTemplate("shared" + i));
+        }
+    }
+
+    @Test
+    public void testConcurrentRequestsLoadOnce() throws Exception {
+        final URL url = group("test() ::= <<chirp>>");
+        final ExecutorService loader = Executors.newSingleThreadExecutor();
+        final ExecutorService callers = Executors.newFixedThreadPool(8);
+        try {
+            final STGroupCache cache = STGroupCache.create(10, loader);
+            final CountDownLatch release = new CountDownLatch(1);
+            final AtomicInteger loads = new AtomicInteger();
+            final List<Future<PreparedGroup>> groups = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                groups.add(callers.submit(() -> cache.get(url, null, (u) -> {
+                    loads.incrementAndGet();
+                    try {
+                        release.await();
+                    }
+                    catch (final InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return new PreparedGroup(ST4StatementLocator.urlToSTGroup(u));
+                })));
+            }
+            release.countDown();
+            final PreparedGroup first = groups.get(0).get();
+            for (final Future<PreparedGroup> group : groups) {
+                assertThat(group.get()).isSameAs(first);
+            }
+            assertThat(loads.get()).isEqualTo(1);
+        }
+        finally {
+            loader.shutdown();
+            callers.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailedLoadIsRemembered() throws Exception {
+        final URL url = group("test() ::= <<chirp>>");
+        final STGroupCache cache = STGroupCache.create(10);
+        final AtomicInteger loads = new AtomicInteger();
+        final Function<URL, PreparedGroup> failing = (u) -> {
+            loads.incrementAndGet();
+            throw new IllegalStateException("broken");
+        };
+
+        for (int i = 0; i < 3; i++) {
+            assertThatThrownBy(() -> cache.get(url, null, failing)).isInstanceOf(IllegalStateException.class)
+                                                                   .hasMessage("broken");
+        }
+        assertThat(loads.get()).isEqualTo(1);
+        assertThat(cache.loadFailureCount()).isEqualTo(1);
+
+        cache.invalidate(url);
+        assertThat(ST4StatementLocator.forURL(cache, url).locate("test", ctx)).isEqualTo("chirp");
+    }
+
+    private static URL group(final String text) throws Exception {
+        final Path tmp = Files.createTempFile("test", ".stg");
+        Files.write(tmp, text.getBytes(StandardCharsets.UTF_8));
+        return tmp.toUri().toURL();
+    }
+
+    private static void rewrite(final URL url, final String text) throws Exception {
+        Files.write(Paths.get(url.toURI()), text.getBytes(StandardCharsets.UTF_8));
+    }
+}
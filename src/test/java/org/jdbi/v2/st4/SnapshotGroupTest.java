@@ -0,0 +1,116 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.skife.jdbi.v2.StatementContext;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.STGroupFile;
+import org.stringtemplate.v4.STGroupString;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SnapshotGroupTest {
+
+    private final StatementContext ctx = Mockito.mock(StatementContext.class);
+
+    @Test
+    public void testResolvesImportsLikeST() throws Exception {
+        final URL url = group("import \"lib/shared.stg\"\n"
+                              + "something_fields() ::= <<mine>>\n"
+                              + "q(columns) ::= <<select <something_fields()>, <fancy(\"x\")>, "
+                              + "<columns:{c | t.<c>}; separator=\", \"> from t>>\n");
+        Mockito.when(ctx.getAttributes()).thenReturn(Collections.singletonMap("columns", Arrays.asList("a", "b")));
+
+        final String sql = ST4StatementLocator.snapshotOf(new STGroupFile(url, "UTF-8", '<', '>')).locate("q", ctx);
+        assertThat(sql).isEqualTo("select mine, (: x :), t.a, t.b from t");
+        assertThat(new ST4StatementLocator(new STGroupFile(url, "UTF-8", '<', '>')).locate("q", ctx)).isEqualTo(sql);
+    }
+
+    @Test
+    public void testTemplatesDefinedLaterAreNotSeen() throws Exception {
+        final STGroup group = new STGroupString("early() ::= <<early>>");
+        final SnapshotGroup snapshot = SnapshotGroup.of(group);
+        group.defineTemplate("late", "late");
+
+        assertThat(snapshot.lookupTemplate("early")).isSameAs(group.lookupTemplate("early"));
+        assertThat(snapshot.lookupTemplate("late")).isNull();
+        assertThat(snapshot.getTemplateNames()).containsOnly("/early");
+    }
+
+    @Test
+    public void testCachedGroupsAreSnapshots() throws Exception {
+        final PreparedGroup group = STGroupCache.create(10).get(ST4StatementLocator.classToUrl(OuterDao.class), null);
+
+        assertThat(group.group()).isInstanceOf(SnapshotGroup.class);
+        assertThat(group.lookup("something_fields")).isNotNull();
+    }
+
+    @Test
+    public void testRemembersMissingNames() throws Exception {
+        final PreparedGroup group = new PreparedGroup(new STGroupString("q() ::= <<q>>")).freeze();
+
+        assertThat(group.lookup("select 1")).isNull();
+        assertThat(group.lookup("select 1")).isNull();
+        assertThat(group.lookup("q")).isNotNull();
+        assertThat(group.missingHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testConcurrentLocates() throws Exception {
+        final ST4StatementLocator sl = ST4StatementLocator.snapshotOf(
+            new STGroupString("q(columns) ::= <<select <columns:{c | <f(c)>}; separator=\", \"> from t>>\n"
+                              + "f(c) ::= <<\nt.<c>\n>>\n"));
+        Mockito.when(ctx.getAttributes()).thenReturn(Collections.singletonMap("columns", Arrays.asList("a", "b")));
+        final ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(threads.submit(() -> {
+                    for (int j = 0; j < 1000; j++) {
+                        if (!"select t.a, t.b from t".equals(sl.locate("q", ctx))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (final Future<Boolean> result : results) {
+                assertThat(result.get()).isTrue();
+            }
+        }
+        finally {
+            threads.shutdown();
+        }
+    }
+
+    private static URL group(final String text) throws Exception {
+        final Path tmp = Files.createTempFile("test", ".stg");
+        Files.write(tmp, text.getBytes(StandardCharsets.UTF_8));
+        return tmp.toUri().toURL();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.skife.jdbi.v2.StatementContext;
+import org.stringtemplate.v4.STGroupString;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class StatementVarietyTest {
+
+    private final ST4StatementLocator locator = new ST4StatementLocator(new STGroupString(
+        "inlined(id) ::= <%select name from something where id = <id>%>\n"
+        + "bound(table) ::= <%select name from <table> where id = :id%>\n"));
+
+    @Test
+    public void testEstimatesDistinctStatementsPerTemplate() throws Exception {
+        final List<StatementVariety.Entry> exceeded = new ArrayList<>();
+        final StatementVariety variety = StatementVariety.create(100, exceeded::add);
+        final ST4StatementLocator sl = locator.withVarietyTracking(variety);
+
+        for (int i = 0; i < 5000; i++) {
+            sl.locate("inlined", ctx("id", i));
+            sl.locate("bound", ctx("table", "something"));
+        }
+        for (int i = 0; i < 50; i++) {
+            sl.locate("select name from something where id = " + i, ctx("id", i));
+        }
+
+        final List<StatementVariety.Entry> top = variety.topOffenders(3);
+        assertThat(top).extracting(StatementVariety.Entry::template).containsExactly("inlined", null, "bound");
+        assertThat(top.get(0).count()).isEqualTo(5000);
+        // no longer sketched once past the threshold
+        assertThat((double) top.get(0).estimate()).isCloseTo(100, within(100 * 0.2));
+        assertThat((double) top.get(1).estimate()).isCloseTo(50, within(5.0));
+        assertThat(top.get(2).estimate()).isEqualTo(1);
+
+        assertThat(exceeded).extracting(StatementVariety.Entry::template).containsExactly("inlined");
+        assertThat(top.get(0).exceeded()).isTrue();
+        assertThat(top.get(2).exceeded()).isFalse();
+    }
+
+    @Test
+    public void testSmallCountsAreExact() throws Exception {
+        final StatementVariety variety = StatementVariety.create();
+        final ST4StatementLocator sl = locator.withVarietyTracking(variety);
+
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 10; j++) {
+                sl.locate("inlined", ctx("id", j));
+            }
+        }
+
+        assertThat(variety.entries()).hasSize(1);
+        assertThat(variety.entries().get(0).estimate()).isEqualTo(10);
+        variety.reset();
+        assertThat(variety.entries()).isEmpty();
+    }
+
+    @Test
+    public void testStatementsWithEqualHashCodesAreDistinct() throws Exception {
+        // "Aa" and "BB" have the same hash code, and so do all 64 strings of six of them
+        final StatementSketch sketch = new StatementSketch();
+        for (int i = 0; i < 64; i++) {
+            final StringBuilder sql = new StringBuilder("select ");
+            for (int bit = 0; bit < 6; bit++) {
+                sql.append((i & (1 << bit)) == 0 ? "Aa" : "BB");
+            }
+            sketch.add(sql.toString());
+        }
+        assertThat((double) sketch.estimate()).isCloseTo(64, within(64 * 0.2));
+    }
+
+    private static StatementContext ctx(final String name, final Object value) {
+        final StatementContext ctx = Mockito.mock(StatementContext.class);
+        Mockito.when(ctx.getAttributes()).thenReturn(Collections.singletonMap(name, value));
+        return ctx;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.skife.jdbi.v2.StatementContext;
+import org.stringtemplate.v4.STErrorListener;
+import org.stringtemplate.v4.STGroupString;
+import org.stringtemplate.v4.misc.STMessage;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class StreamingLocateTest {
+
+    private final ST4StatementLocator locator = new ST4StatementLocator(new STGroupString(
+        "insert(rows) ::= <%insert into t values <rows:{r | (<r>)}; separator=\",\">%>\n"
+        + "constant() ::= <%select 1%>"));
+
+    @Test
+    public void testWritesStatementToSink() throws Exception {
+        final StringWriter out = new StringWriter();
+
+        assertThat(locator.locateTo("insert", ctx(1, 2, 3), out)).isEqualTo(32);
+        assertThat(out.toString()).isEqualTo("insert into t values (1),(2),(3)");
+        assertThat(out.toString()).isEqualTo(locator.locate("insert", ctx(1, 2, 3)));
+    }
+
+    @Test
+    public void testWritesConstantsAndLiteralsToSink() throws Exception {
+        final CharBuffer out = CharBuffer.allocate(64);
+
+        assertThat(locator.locateTo("constant", ctx(), out)).isEqualTo(8);
+        assertThat(locator.locateTo("select 2", ctx(), out)).isEqualTo(8);
+        out.flip();
+        assertThat(out.toString()).isEqualTo("select 1select 2");
+    }
+
+    @Test
+    public void testLength() throws Exception {
+        assertThat(locator.locatedLength("insert", ctx(1, 2, 3))).isEqualTo(32);
+        assertThat(locator.locatedLength("constant", ctx())).isEqualTo(8);
+    }
+
+    @Test
+    public void testMaxLength() throws Exception {
+        final ST4StatementLocator limited = locator.withMaxLength(30);
+        assertThat(limited.locate("insert", ctx(1, 2))).isEqualTo("insert into t values (1),(2)");
+
+        try {
+            limited.locate("insert", ctx(1, 2, 3));
+            fail("statement longer than the limit");
+        }
+        catch (final StatementTooLongException e) {
+            assertThat(e.maxLength()).isEqualTo(30);
+        }
+
+        final StringWriter out = new StringWriter();
+        try {
+            limited.locateTo("insert", ctx(1, 2, 3), out);
+            fail("statement longer than the limit");
+        }
+        catch (final StatementTooLongException e) {
+            assertThat(out.toString()).hasSize(30);
+        }
+    }
+
+    @Test
+    public void testStopsRenderingPastMaxLength() throws Exception {
+        final AtomicInteger rendered = new AtomicInteger();
+        final Object[] rows = new Object[1000];
+        for (int i = 0; i < rows.length; i++) {
+            final int row = i;
+            rows[i] = new Object() {
+                @Override
+                public String toString() {
+                    rendered.incrementAndGet();
+                    return String.valueOf(row);
+                }
+            };
+        }
+
+        for (final boolean streamed : new boolean[] {false, true}) {
+            rendered.set(0);
+            try {
+                if (streamed) {
+                    locator.withMaxLength(30).locatedLength("insert", ctx(rows));
+                }
+                else {
+                    locator.withMaxLength(30).locate("insert", ctx(rows));
+                }
+                fail("statement longer than the limit");
+            }
+            catch (final StatementTooLongException e) {
+                assertThat(rendered.get()).isLessThan(10);
+            }
+        }
+    }
+
+    @Test
+    public void testReportsNothingPastMaxLength() throws Exception {
+        final List<STMessage> errors = new ArrayList<>();
+        final STGroupString group = new STGroupString(
+            "insert(rows) ::= <%insert into t values <rows:{r | (<r>)}; separator=\",\">%>");
+        group.setListener(new STErrorListener() {
+            @Override
+            public void compileTimeError(final STMessage msg) {
+                errors.add(msg);
+            }
+
+            @Override
+            public void runTimeError(final STMessage msg) {
+                errors.add(msg);
+            }
+
+            @Override
+            public void IOError(final STMessage msg) {
+                errors.add(msg);
+            }
+
+            @Override
+            public void internalError(final STMessage msg) {
+                errors.add(msg);
+            }
+        });
+        final ST4StatementLocator limited = new ST4StatementLocator(group).withMaxLength(30);
+
+        for (final boolean streamed : new boolean[] {false, true}) {
+            try {
+                if (streamed) {
+                    limited.locatedLength("insert", ctx(1, 2, 3, 4, 5));
+                }
+                else {
+                    limited.locate("insert", ctx(1, 2, 3, 4, 5));
+                }
+                fail("statement longer than the limit");
+            }
+            catch (final StatementTooLongException e) {
+                assertThat(errors).isEmpty();
+            }
+        }
+    }
+
+    @Test
+    public void testMaxLengthOfConstants() throws Exception {
+        try {
+            locator.withMaxLength(4).locate("constant", ctx());
+            fail("statement longer than the limit");
+        }
+        catch (final StatementTooLongException e) {
+            assertThat(e.maxLength()).isEqualTo(4);
+        }
+    }
+
+    @Test
+    public void testSinkFailure() throws Exception {
+        final IOException failure = new IOException("disk full");
+        final Writer out = new Writer() {
+            @Override
+            public void write(final char[] chars, final int offset, final int length) throws IOException {
+                throw failure;
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        try {
+            locator.locateTo("insert", ctx(1, 2, 3), out);
+            fail("sink failed");
+        }
+        catch (final IOException e) {
+            assertThat(e).isSameAs(failure);
+        }
+    }
+
+    private static StatementContext ctx(final Object... rows) {
+        final Map<String, Object> attributes = new HashMap<>();
+        if (rows.length > 0) {
+            attributes.put("rows", rows);
+        }
+        final StatementContext ctx = Mockito.mock(StatementContext.class);
+        Mockito.when(ctx.getAttributes()).thenReturn(attributes);
+        return ctx;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.skife.jdbi.v2.StatementContext;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.STGroupString;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TemplateMetricsTest {
+
+    private final STGroup group = new STGroupString("constant() ::= <<select 1>>\n"
+                                                    + "dynamic(table) ::= <%select 1 from <table>%>\n");
+
+    @Test
+    public void testListenerSeesEveryStatement() throws Exception {
+        final List<LocateEvent> events = new ArrayList<>();
+        final ST4StatementLocator sl = new ST4StatementLocator(group)
+            .withRenderCache(RenderedStatementCache.maximumSize(10))
+            .withListener(events::add);
+
+        sl.locate("constant", ctx());
+        sl.locate("dynamic", ctx());
+        sl.locate("dynamic", ctx());
+        sl.locate("select 2", ctx());
+
+        assertThat(events).extracting(LocateEvent::outcome).containsExactly(LocateEvent.Outcome.CONSTANT,
+                                                                           LocateEvent.Outcome.RENDERED,
+                                                                           LocateEvent.Outcome.CACHED,
+                                                                           LocateEvent.Outcome.VERBATIM);
+        assertThat(events).extracting(LocateEvent::renderCache).containsExactly(LocateEvent.RenderCacheResult.NOT_USED,
+                                                                               LocateEvent.RenderCacheResult.MISS,
+                                                                               LocateEvent.RenderCacheResult.HIT,
+                                                                               LocateEvent.RenderCacheResult.NOT_USED);
+        assertThat(events.get(1).template()).isEqualTo("dynamic");
+        assertThat(events.get(1).length()).isEqualTo("select 1 from dual".length());
+        assertThat(events.get(3).literal()).isTrue();
+    }
+
+    @Test
+    public void testAggregatesPerTemplate() throws Exception {
+        final TemplateMetrics metrics = TemplateMetrics.create();
+        final ST4StatementLocator sl = new ST4StatementLocator(group).withListener(metrics);
+
+        for (int i = 0; i < 3; i++) {
+            sl.locate("dynamic", ctx());
+        }
+        sl.locate("constant", ctx());
+
+        assertThat(metrics.entries()).hasSize(2);
+        assertThat(metrics.slowest(1)).hasSize(1);
+        final List<TemplateMetrics.Entry> all = metrics.slowest(10);
+        assertThat(all.get(0).meanTime(TimeUnit.NANOSECONDS)).isGreaterThanOrEqualTo(all.get(1).meanTime(TimeUnit.NANOSECONDS));
+
+        final TemplateMetrics.Entry dynamic = all.get(all.get(0).template().equals("dynamic") ? 0 : 1);
+        assertThat(dynamic.count()).isEqualTo(3);
+        assertThat(dynamic.renderCount()).isEqualTo(3);
+        assertThat(dynamic.meanLength()).isEqualTo("select 1 from dual".length());
+    }
+
+    private static StatementContext ctx() {
+        final StatementContext ctx = Mockito.mock(StatementContext.class);
+        Mockito.when(ctx.getAttributes()).thenReturn(Collections.singletonMap("table", "dual"));
+        return ctx;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbi.v2.st4;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.skife.jdbi.v2.StatementContext;
+import org.skife.jdbi.v2.tweak.StatementLocator;
+import org.stringtemplate.v4.STGroupString;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class TemplateSourceTest {
+
+    private final StatementContext ctx = Mockito.mock(StatementContext.class);
+
+    @Test
+    public void testInMemoryGroupsShareImports() throws Exception {
+        final Map<String, String> groups = new HashMap<>();
+        groups.put("sql/a.stg", "import \"lib.stg\"\nq() ::= <<select <columns()> from a>>\n");
+        groups.put("sql/b.stg", "import \"lib.stg\"\nq() ::= <<select <columns()> from b>>\n");
+        groups.put("sql/lib.stg", "columns() ::= <<id, name>>\n");
+        final TemplateSource source = TemplateSource.inMemory(groups);
+        final STGroupCache cache = STGroupCache.create(10);
+
+        assertThat(ST4StatementLocator.fromSource(cache, source, "sql/a.stg").locate("q", ctx))
+            .isEqualTo("select id, name from a");
+        assertThat(ST4StatementLocator.fromSource(cache, source, "/sql/b.stg").locate("q", ctx))
+            .isEqualTo("select id, name from b");
+        assertThat(cache.sharedImportCount()).isEqualTo(2);
+        assertThat(cache.loadCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void testInMemorySourcesAreCachedApart() throws Exception {
+        final STGroupCache cache = STGroupCache.create(10);
+        final TemplateSource one = TemplateSource.inMemory(singleGroup("q() ::= <<select 1>>\n"));
+        final TemplateSource two = TemplateSource.inMemory(singleGroup("q() ::= <<select 2>>\n"));
+
+        assertThat(ST4StatementLocator.fromSource(cache, one, "q.stg").locate("q", ctx)).isEqualTo("select 1");
+        assertThat(ST4StatementLocator.fromSource(cache, two, "q.stg").locate("q", ctx)).isEqualTo("select 2");
+    }
+
+    @Test
+    public void testDirectoryTree() throws Exception {
+        final Path root = Files.createTempDirectory("templates");
+        final StringBuilder large = new StringBuilder("q() ::= <<select '\u00e9'");
+        while (large.length() < DirectoryTemplateSource.MAP_THRESHOLD) {
+            large.append(", '\u00e9'");
+        }
+        write(root.resolve("big.stg"), large.append(">>\n").toString());
+        write(root.resolve("org/jdbi/v2/st4/TemplateSourceTest.Dao.sql.stg"), "q() ::= <<select '\u00fc'>>\n");
+        write(root.resolve("org/jdbi/v2/st4/notes.txt"), "not a group\n");
+        final TemplateSource source = TemplateSource.directory(root);
+        final STGroupCache cache = STGroupCache.create(10);
+
+        assertThat(source.paths()).containsOnly("big.stg", "org/jdbi/v2/st4/TemplateSourceTest.Dao.sql.stg");
+        assertThat(source.find("big.stg")).isEqualTo(root.resolve("big.stg").toUri().toURL());
+        assertThat(source.find("missing.stg")).isNull();
+        assertThat(cache.preload(Runnable::run, false, source).hasErrors()).isFalse();
+        assertThat(cache.size()).isEqualTo(2);
+
+        final String big = ST4StatementLocator.fromSource(cache, source, "big.stg").locate("q", ctx);
+        assertThat(big).startsWith("select '\u00e9', '\u00e9'").hasSize(large.length() - "q() ::= <<>>\n".length());
+        assertThat(cache.loadCount()).isEqualTo(2);
+
+        Mockito.<Class<?>>when(ctx.getSqlObjectType()).thenReturn(Dao.class);
+        final StatementLocator sl = ST4StatementLocator.perType(cache, source,
+                                                                new ST4StatementLocator(new STGroupString("")));
+        assertThat(sl.locate("q", ctx)).isEqualTo("select '\u00fc'");
+        assertThat(cache.loadCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testClasspath() throws Exception {
+        final TemplateSource source = TemplateSource.classpath();
+
+        assertThat(source.find("/org/jdbi/v2/st4/OuterDao.sql.stg"))
+            .isEqualTo(ST4StatementLocator.classToUrl(OuterDao.class));
+        assertThat(ST4StatementLocator.fromSource(null, source, "org/jdbi/v2/st4/OuterDao.sql.stg")
+                                      .locate("something_fields", ctx)).isNotEmpty();
+    }
+
+    @Test
+    public void testMissingGroup() throws Exception {
+        try {
+            ST4StatementLocator.fromSource(null, TemplateSource.inMemory(new HashMap<>()), "missing.stg");
+            fail("expected IllegalArgumentException");
+        }
+        catch (final IllegalArgumentException e) {
+            assertThat(e.getMessage()).contains("missing.stg");
+        }
+    }
+
+    private static Map<String, String> singleGroup(final String text) {
+        final Map<String, String> groups = new HashMap<>();
+        groups.put("q.stg", text);
+        return groups;
+    }
+
+    private static void write(final Path file, final String text) throws Exception {
+        Files.createDirectories(file.getParent());
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public interface Dao {
+    }
+}